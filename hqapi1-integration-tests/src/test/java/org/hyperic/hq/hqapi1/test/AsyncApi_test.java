@@ -0,0 +1,118 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hyperic.hq.hqapi1.ApiCallback;
+import org.hyperic.hq.hqapi1.HQAsyncApi;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+
+public class AsyncApi_test extends HQApiTestBase {
+
+    public AsyncApi_test(String name) {
+        super(name);
+    }
+
+    public void testGetResourceAsync() throws Exception {
+
+        Resource r = getLocalPlatformResource(false, false);
+
+        HQAsyncApi api = new HQAsyncApi(getApi(), 4);
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicInteger successes = new AtomicInteger();
+
+            Future<ResourceResponse> future =
+                    api.getResource(r.getId(), false, false,
+                                    new ApiCallback<ResourceResponse>() {
+                        public void completed(ResourceResponse result) {
+                            successes.incrementAndGet();
+                            latch.countDown();
+                        }
+
+                        public void failed(Exception e) {
+                            latch.countDown();
+                        }
+                    });
+
+            ResourceResponse response = future.get(60, TimeUnit.SECONDS);
+            hqAssertSuccess(response);
+            assertEquals(r.getId(), response.getResource().getId());
+
+            assertTrue("Callback not invoked", latch.await(60, TimeUnit.SECONDS));
+            assertEquals(1, successes.get());
+        } finally {
+            api.close();
+        }
+    }
+
+    public void testGetInvalidResourceAsync() throws Exception {
+
+        HQAsyncApi api = new HQAsyncApi(getApi());
+        try {
+            Future<ResourceResponse> future =
+                    api.getResource(Integer.MAX_VALUE, false, false, null);
+            hqAssertFailureObjectNotFound(future.get(60, TimeUnit.SECONDS));
+        } finally {
+            api.close();
+        }
+    }
+
+    public void testSubmitMany() throws Exception {
+
+        final HQAsyncApi api = new HQAsyncApi(getApi(), 4);
+        try {
+            List<Future<ResourcesResponse>> futures =
+                    new ArrayList<Future<ResourcesResponse>>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(api.submit(new Callable<ResourcesResponse>() {
+                    public ResourcesResponse call() throws Exception {
+                        return api.getApi().getResourceApi().
+                                getResources(getRunningAgent(), false, false);
+                    }
+                }));
+            }
+
+            for (Future<ResourcesResponse> future : futures) {
+                hqAssertSuccess(future.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            api.close();
+        }
+    }
+}
@@ -46,6 +46,7 @@ import org.hyperic.hq.hqapi1.AgentApi;
 import org.hyperic.hq.hqapi1.ErrorCode;
 import org.hyperic.hq.hqapi1.GroupApi;
 import org.hyperic.hq.hqapi1.HQApi;
+import org.hyperic.hq.hqapi1.HQConnection;
 import org.hyperic.hq.hqapi1.MetricApi;
 import org.hyperic.hq.hqapi1.ResourceApi;
 import org.hyperic.hq.hqapi1.RoleApi;
@@ -209,6 +210,12 @@ public abstract class HQApiTestBase extends TestCase {
                          _connectionProps.password);
     }
 
+    HQConnection getConnection() {
+        return new HQConnection(_connectionProps.host, _connectionProps.port,
+                                _connectionProps.secure, _connectionProps.user,
+                                _connectionProps.password);
+    }
+
     HQApi getApi(boolean secure) {
         // Must fudge a bit here since our client properties only allows the
         // specification of 1 port.
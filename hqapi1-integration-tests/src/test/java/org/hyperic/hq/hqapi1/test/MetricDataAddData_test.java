@@ -1,8 +1,14 @@
 package org.hyperic.hq.hqapi1.test;
 
+import org.hyperic.hq.hqapi1.CircuitBreaker;
+import org.hyperic.hq.hqapi1.HQApi;
+import org.hyperic.hq.hqapi1.HQConnection;
 import org.hyperic.hq.hqapi1.MetricApi;
 import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricSpool;
+import org.hyperic.hq.hqapi1.MetricWriter;
 import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.RetryPolicy;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
 import org.hyperic.hq.hqapi1.types.Metric;
@@ -13,7 +19,11 @@ import org.hyperic.hq.hqapi1.types.ResourcePrototype;
 import org.hyperic.hq.hqapi1.types.ResourceResponse;
 import org.hyperic.hq.hqapi1.types.MetricResponse;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricDataPoints;
+import org.hyperic.hq.hqapi1.types.MetricsDataPointsRequest;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Random;
@@ -144,4 +154,191 @@ public class MetricDataAddData_test extends MetricDataTestBase {
         StatusResponse dataResponse = dataApi.addData(availMetric, dataPoints);
         hqAssertFailureInvalidParameters(dataResponse);        
     }
+
+    public void testAddDataMultiInvalidMetric() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric availMetric = findAvailabilityMetric(platform);
+
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+
+        DataPoint dp = new DataPoint();
+        dp.setTimestamp(System.currentTimeMillis());
+        dp.setValue(1.0);
+        List<DataPoint> dps = new ArrayList<DataPoint>();
+        dps.add(dp);
+
+        // The valid availability metric must not be inserted either
+        Map<Metric,List<DataPoint>> data = new HashMap<Metric,List<DataPoint>>();
+        data.put(availMetric, dps);
+        data.put(m, dps);
+
+        StatusResponse response = dataApi.addData(data);
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testAddDataMultiInvalidAvailability() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        Metric availMetric = findAvailabilityMetric(platform);
+
+        DataPoint dp = new DataPoint();
+        dp.setTimestamp(System.currentTimeMillis());
+        dp.setValue(2.0);
+        List<DataPoint> dps = new ArrayList<DataPoint>();
+        dps.add(dp);
+
+        Map<Metric,List<DataPoint>> data = new HashMap<Metric,List<DataPoint>>();
+        data.put(availMetric, dps);
+
+        StatusResponse response = dataApi.addData(data);
+        hqAssertFailureInvalidParameters(response);
+    }
+
+    public void testMetricWriterInvalidMetric() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+
+        MetricWriter writer = new MetricWriter(dataApi, 2, 60000, 1, null);
+        try {
+            for (int i = 0; i < 5; i++) {
+                DataPoint dp = new DataPoint();
+                dp.setTimestamp(System.currentTimeMillis() - i);
+                dp.setValue(i);
+                writer.write(m, dp);
+            }
+            writer.flush();
+            assertEquals(0, writer.getWrittenCount());
+            assertEquals(5, writer.getFailedCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testMetricWriterSpoolsWhileBreakerOpen() throws Exception {
+
+        // Nothing listens on port 1, a single failure opens the breaker
+        HQConnection conn = new HQConnection("localhost", 1, false,
+                                             "hqadmin", "hqadmin");
+        conn.setRetryPolicy(RetryPolicy.none());
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 1.0, 60000, 0);
+        conn.setCircuitBreaker(breaker);
+        MetricDataApi dataApi = new HQApi(conn).getMetricDataApi();
+
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        List<DataPoint> dps = new ArrayList<DataPoint>();
+        try {
+            dataApi.addData(m, dps);
+            fail("Connected to port 1");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        File dir = File.createTempFile("spool", "");
+        dir.delete();
+        MetricSpool spool = new MetricSpool(dir, 1024 * 1024);
+        try {
+            MetricWriter writer = new MetricWriter(dataApi, 2, 60000, 1, null, spool);
+            try {
+                for (int i = 0; i < 5; i++) {
+                    DataPoint dp = new DataPoint();
+                    dp.setTimestamp(System.currentTimeMillis() - i);
+                    dp.setValue(i);
+                    writer.write(m, dp);
+                }
+                writer.flush();
+                assertEquals(0, writer.getWrittenCount());
+                assertEquals(0, writer.getFailedCount());
+            } finally {
+                writer.close();
+            }
+            assertTrue(breaker.getRejectedCount() > 0);
+
+            // Every point rejected by the breaker is still in the spool
+            int points = 0;
+            MetricsDataPointsRequest request;
+            while ((request = spool.peek()) != null) {
+                for (MetricDataPoints p : request.getMetricDataPoints()) {
+                    points += p.getDataPoint().size();
+                }
+                spool.remove();
+            }
+            assertEquals(5, points);
+        } finally {
+            spool.close();
+            deleteDir(dir);
+        }
+    }
+
+    public void testMetricSpoolRejectAndEvict() throws Exception {
+        File dir = File.createTempFile("spool", "");
+        dir.delete();
+        MetricSpool spool = new MetricSpool(dir, 8192, 4096);
+        try {
+            for (int i = 0; i < 3; i++) {
+                spool.append(createRequest(i, 10));
+            }
+
+            // Rejected batches move to the dead letter spool
+            assertEquals(0, spool.peek().getMetricDataPoints().get(0).getMetricId());
+            assertTrue(spool.reject());
+            assertEquals(10, spool.getRejectedCount());
+            assertEquals(1, spool.peek().getMetricDataPoints().get(0).getMetricId());
+
+            // A peeked batch evicted before it is removed is not removed twice
+            for (int i = 3; i < 100; i++) {
+                spool.append(createRequest(i, 10));
+            }
+            assertFalse(spool.remove());
+            int next = spool.peek().getMetricDataPoints().get(0).getMetricId();
+            assertTrue(next > 1);
+            assertTrue(spool.remove());
+            assertEquals(next + 1, spool.peek().getMetricDataPoints().get(0).getMetricId());
+
+            MetricSpool deadLetters =
+                new MetricSpool(spool.getDeadLetterDirectory(), 8192, 4096);
+            try {
+                assertEquals(0, deadLetters.peek().getMetricDataPoints().get(0).getMetricId());
+            } finally {
+                deadLetters.close();
+            }
+        } finally {
+            spool.close();
+            deleteDir(dir);
+        }
+    }
+
+    private MetricsDataPointsRequest createRequest(int metricId, int numPoints) {
+        MetricDataPoints points = new MetricDataPoints();
+        points.setMetricId(metricId);
+        for (int i = 0; i < numPoints; i++) {
+            DataPoint dp = new DataPoint();
+            dp.setTimestamp(i);
+            dp.setValue(i);
+            points.getDataPoint().add(dp);
+        }
+        MetricsDataPointsRequest request = new MetricsDataPointsRequest();
+        request.getMetricDataPoints().add(points);
+        return request;
+    }
+
+    private void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteDir(f);
+            }
+        }
+        dir.delete();
+    }
 }
@@ -1,15 +1,24 @@
 package org.hyperic.hq.hqapi1.test;
 
+import org.hyperic.hq.hqapi1.BulkMetricsDataResponse;
+import org.hyperic.hq.hqapi1.ElementHandler;
 import org.hyperic.hq.hqapi1.MetricApi;
 import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataPoller;
+import org.hyperic.hq.hqapi1.MetricDataSeriesResponse;
+import org.hyperic.hq.hqapi1.types.DataPoint;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
 import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
 import org.hyperic.hq.hqapi1.types.MetricData;
 import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class MetricDataGetMulti_test extends MetricDataTestBase {
 
@@ -39,6 +48,211 @@ public class MetricDataGetMulti_test extends MetricDataTestBase {
         }
     }
 
+    public void testValidGetStreaming() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+
+        final List<MetricData> streamed = new ArrayList<MetricData>();
+        StatusResponse response = dataApi.getData(metricsResponse.getMetric(),
+                                                  start, end,
+                                                  new ElementHandler<MetricData>() {
+            public void handleElement(MetricData metricData) {
+                streamed.add(metricData);
+            }
+        });
+        hqAssertSuccess(response);
+
+        assertEquals(metricsResponse.getMetric().size(), streamed.size());
+        for (MetricData metricData : streamed) {
+            validateMetricData(metricData);
+        }
+    }
+
+    public void testGetInvalidMetricIdStreaming() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        metrics.add(m);
+
+        StatusResponse response = dataApi.getData(metrics, start, end,
+                                                  new ElementHandler<MetricData>() {
+            public void handleElement(MetricData metricData) {
+                fail("Unexpected MetricData for invalid metric");
+            }
+        });
+        hqAssertFailureObjectNotFound(response);
+    }
+
+    public void testValidGetSeries() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        // Query a window in the past so both queries see the same data
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataSeriesResponse seriesResponse =
+                dataApi.getDataSeries(metricsResponse.getMetric(), start, end);
+        hqAssertSuccess(seriesResponse);
+
+        MetricsDataResponse dataResponse = dataApi.getData(metricsResponse.getMetric(),
+                                                           start, end);
+        hqAssertSuccess(dataResponse);
+
+        assertEquals(dataResponse.getMetricData().size(),
+                     seriesResponse.getMetricDataSeries().size());
+        for (int i = 0; i < dataResponse.getMetricData().size(); i++) {
+            validateMetricDataSeries(seriesResponse.getMetricDataSeries().get(i));
+            validateMetricDataSeries(dataResponse.getMetricData().get(i),
+                                     seriesResponse.getMetricDataSeries().get(i));
+        }
+    }
+
+    public void testGetSeriesInvalidMetricId() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        metrics.add(m);
+
+        MetricDataSeriesResponse seriesResponse = dataApi.getDataSeries(metrics, start, end);
+        hqAssertFailureObjectNotFound(seriesResponse);
+    }
+
+    public void testValidGetBulk() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        BulkMetricsDataResponse dataResponse =
+                dataApi.getDataBulk(metricsResponse.getMetric(), start, end, 2, 3);
+        hqAssertSuccess(dataResponse);
+        assertEquals(0, dataResponse.getChunkFailure().size());
+
+        // Results are merged in the order requested
+        assertEquals(metricsResponse.getMetric().size(),
+                     dataResponse.getMetricData().size());
+        for (int i = 0; i < dataResponse.getMetricData().size(); i++) {
+            MetricData metricData = dataResponse.getMetricData().get(i);
+            assertEquals(metricsResponse.getMetric().get(i).getId(),
+                         metricData.getMetricId());
+            validateMetricData(metricData);
+        }
+    }
+
+    public void testGetBulkPartialFailure() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+        metrics.add(metricsResponse.getMetric().get(0));
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+        metrics.add(m);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        BulkMetricsDataResponse dataResponse =
+                dataApi.getDataBulk(metrics, start, end, 1, 2);
+        hqAssertFailureObjectNotFound(dataResponse);
+
+        assertEquals(1, dataResponse.getChunkFailure().size());
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE),
+                     dataResponse.getChunkFailure().get(0).getIds().get(0));
+        assertEquals(1, dataResponse.getMetricData().size());
+        validateMetricData(dataResponse.getMetricData().get(0));
+    }
+
+    public void testPoll() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+        List<Metric> metrics = metricsResponse.getMetric();
+
+        File cursorFile = File.createTempFile("hqapi-cursors", ".properties");
+        cursorFile.delete();
+        try {
+            MetricDataPoller poller =
+                    new MetricDataPoller(dataApi, metrics, 60 * 60 * 1000, cursorFile);
+            MetricsDataResponse first = poller.poll();
+            hqAssertSuccess(first);
+            assertTrue("Cursor file not written", cursorFile.exists());
+
+            Map<Integer,Long> cursors = new HashMap<Integer,Long>();
+            for (MetricData metricData : first.getMetricData()) {
+                validateMetricData(metricData);
+                cursors.put(metricData.getMetricId(),
+                            poller.getCursor(metricData.getMetricId()));
+            }
+
+            // A poller resumed from the cursor file only returns new points
+            MetricDataPoller resumed =
+                    new MetricDataPoller(dataApi, metrics, 60 * 60 * 1000, cursorFile);
+            MetricsDataResponse second = resumed.poll();
+            hqAssertSuccess(second);
+            for (MetricData metricData : second.getMetricData()) {
+                Long cursor = cursors.get(metricData.getMetricId());
+                if (cursor == null) {
+                    continue;
+                }
+                for (DataPoint dp : metricData.getDataPoint()) {
+                    assertTrue("Data point " + dp.getTimestamp() +
+                               " returned twice", dp.getTimestamp() > cursor);
+                }
+            }
+        } finally {
+            cursorFile.delete();
+        }
+    }
+
     public void testGetInvalidMetricId() throws Exception {
 
         MetricDataApi dataApi = getApi().getMetricDataApi();
@@ -1,11 +1,18 @@
 package org.hyperic.hq.hqapi1.test;
 
+import org.hyperic.hq.hqapi1.Aggregation;
 import org.hyperic.hq.hqapi1.MetricDataApi;
+import org.hyperic.hq.hqapi1.MetricDataSeries;
+import org.hyperic.hq.hqapi1.MetricDataSeriesResponse;
 import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.Rollup;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.Metric;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+
+import java.util.List;
 
 public class MetricDataGet_test extends MetricDataTestBase {
 
@@ -34,6 +41,219 @@ public class MetricDataGet_test extends MetricDataTestBase {
         validateMetricData(dataResponse.getMetricData());
     }
 
+    public void testValidGetSeries() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        Metric m = metricsResponse.getMetric().get(0);
+
+        // Query a window in the past so both queries see the same data
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataSeriesResponse seriesResponse = dataApi.getDataSeries(m, start, end);
+        hqAssertSuccess(seriesResponse);
+        assertEquals(1, seriesResponse.getMetricDataSeries().size());
+        validateMetricDataSeries(seriesResponse.getMetricDataSeries().get(0));
+
+        MetricDataResponse dataResponse = dataApi.getData(m, start, end);
+        hqAssertSuccess(dataResponse);
+        validateMetricDataSeries(dataResponse.getMetricData(),
+                                 seriesResponse.getMetricDataSeries().get(0));
+    }
+
+    public void testGetSeriesAggregates() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        Metric m = metricsResponse.getMetric().get(0);
+
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataSeriesResponse seriesResponse = dataApi.getDataSeries(m, start, end);
+        hqAssertSuccess(seriesResponse);
+        MetricDataSeries series = seriesResponse.getMetricDataSeries().get(0);
+
+        MetricDataResponse dataResponse = dataApi.getData(m, start, end);
+        hqAssertSuccess(dataResponse);
+        List<DataPoint> points = dataResponse.getMetricData().getDataPoint();
+        assertEquals(points.size(), series.size());
+        if (points.size() == 0) {
+            assertTrue(Double.isNaN(series.getAverage()));
+            return;
+        }
+
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum = 0;
+        for (DataPoint dp : points) {
+            min = Math.min(min, dp.getValue());
+            max = Math.max(max, dp.getValue());
+            sum += dp.getValue();
+        }
+        assertEquals(min, series.getMin(), 0);
+        assertEquals(max, series.getMax(), 0);
+        assertEquals(sum / points.size(), series.getAverage(), 0.0001);
+        assertEquals(min, series.getPercentile(0), 0);
+        assertEquals(max, series.getPercentile(100), 0);
+
+        MetricDataSeries hourly = series.rollup(60 * 60 * 1000, Aggregation.MAX);
+        assertTrue(hourly.size() > 0 && hourly.size() <= 9);
+        assertEquals(max, hourly.getMax(), 0);
+    }
+
+    public void testValidGetRollup() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        Metric m = metricsResponse.getMetric().get(0);
+
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataResponse dataResponse = dataApi.getData(m, start, end);
+        hqAssertSuccess(dataResponse);
+
+        MetricDataResponse rollupResponse =
+                dataApi.getData(m, start, end, Rollup.maxPoints(4, Aggregation.MAX));
+        hqAssertSuccess(rollupResponse);
+        validateMetricData(rollupResponse.getMetricData());
+
+        List<DataPoint> points = rollupResponse.getMetricData().getDataPoint();
+        assertTrue("Too many data points returned " + points.size(),
+                   points.size() <= 4);
+
+        double max = -Double.MAX_VALUE;
+        for (DataPoint dp : dataResponse.getMetricData().getDataPoint()) {
+            max = Math.max(max, dp.getValue());
+        }
+        // Buckets are aligned to the epoch, the first may begin before start
+        for (DataPoint dp : points) {
+            assertTrue(dp.getTimestamp() > start - (end - start) &&
+                       dp.getTimestamp() <= end);
+            assertTrue(dp.getValue() <= max);
+        }
+    }
+
+    public void testRollupMatchesSeriesRollup() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        Metric m = metricsResponse.getMetric().get(0);
+
+        // Query a window in the past so both queries see the same data
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (8 * 60 * 60 * 1000);
+        final long INTERVAL = 60 * 60 * 1000;
+
+        MetricDataSeriesResponse seriesResponse = dataApi.getDataSeries(m, start, end);
+        hqAssertSuccess(seriesResponse);
+
+        for (Aggregation aggregation : Aggregation.values()) {
+            MetricDataSeries clientRollup = seriesResponse.getMetricDataSeries().get(0)
+                    .rollup(INTERVAL, aggregation);
+
+            MetricDataResponse serverRollup =
+                    dataApi.getData(m, start, end, Rollup.interval(INTERVAL, aggregation));
+            hqAssertSuccess(serverRollup);
+
+            List<DataPoint> points = serverRollup.getMetricData().getDataPoint();
+            assertEquals(clientRollup.size(), points.size());
+            for (int i = 0; i < points.size(); i++) {
+                assertEquals(clientRollup.getTimestamps()[i], points.get(i).getTimestamp());
+                assertEquals(clientRollup.getValues()[i], points.get(i).getValue(), 0.0001);
+            }
+        }
+    }
+
+    public void testValidGetSplit() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+        assertTrue("No metrics found for " + platform.getName(),
+                   metricsResponse.getMetric().size() > 0);
+
+        Metric m = metricsResponse.getMetric().get(0);
+
+        // Query a window in the past so both queries see the same data
+        long end = System.currentTimeMillis() - (60 * 60 * 1000);
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataResponse splitResponse =
+                dataApi.getDataSplit(m, start, end, 60 * 60 * 1000, 3);
+        hqAssertSuccess(splitResponse);
+        validateMetricData(splitResponse.getMetricData());
+
+        MetricDataResponse dataResponse = dataApi.getData(m, start, end);
+        hqAssertSuccess(dataResponse);
+
+        List<DataPoint> expected = dataResponse.getMetricData().getDataPoint();
+        List<DataPoint> actual = splitResponse.getMetricData().getDataPoint();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+        }
+    }
+
+    public void testGetSplitInvalidRange() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Resource platform = getLocalPlatformResource(false, false);
+        MetricsResponse metricsResponse = api.getMetrics(platform, true);
+        hqAssertSuccess(metricsResponse);
+
+        Metric m = metricsResponse.getMetric().get(0);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataResponse dataResponse = dataApi.getDataSplit(m, end, start);
+        hqAssertFailureInvalidParameters(dataResponse);
+    }
+
+    public void testGetSeriesInvalidMetricId() throws Exception {
+
+        MetricDataApi dataApi = getApi().getMetricDataApi();
+
+        Metric m = new Metric();
+        m.setId(Integer.MAX_VALUE);
+
+        long end = System.currentTimeMillis();
+        long start = end - (8 * 60 * 60 * 1000);
+        MetricDataSeriesResponse seriesResponse = dataApi.getDataSeries(m, start, end);
+        hqAssertFailureObjectNotFound(seriesResponse);
+    }
+
     public void testGetInvalidMetricId() throws Exception {
 
         MetricDataApi dataApi = getApi().getMetricDataApi();
@@ -1,5 +1,6 @@
 package org.hyperic.hq.hqapi1.test;
 
+import org.hyperic.hq.hqapi1.MetricDataSeries;
 import org.hyperic.hq.hqapi1.types.MetricData;
 import org.hyperic.hq.hqapi1.types.DataPoint;
 import org.hyperic.hq.hqapi1.types.LastMetricData;
@@ -26,6 +27,37 @@ public abstract class MetricDataTestBase extends HQApiTestBase {
     }
 
 
+    protected void validateMetricDataSeries(MetricDataSeries series) {
+        assertTrue("Resource name is empty", series.getResourceName().length() > 0);
+        assertTrue("Invalid resource id", series.getResourceId() > 0);
+        assertTrue("Metric name is empty", series.getMetricName().length() > 0);
+        assertTrue("Invalid metric id", series.getMetricId() > 0);
+
+        long lastTs = 0;
+        // Data points should be in ascending order
+        for (int i = 0; i < series.size(); i++) {
+            assertTrue("Timestamp out of order " + lastTs + " > " + series.getTimestamp(i),
+                       lastTs < series.getTimestamp(i));
+            lastTs = series.getTimestamp(i);
+        }
+    }
+
+    /**
+     * Check that a series holds the same data as the given MetricData.
+     */
+    protected void validateMetricDataSeries(MetricData data, MetricDataSeries series) {
+        assertEquals(data.getResourceId(), series.getResourceId());
+        assertEquals(data.getResourceName(), series.getResourceName());
+        assertEquals(data.getMetricId(), series.getMetricId());
+        assertEquals(data.getMetricName(), series.getMetricName());
+        assertEquals(data.getDataPoint().size(), series.size());
+        for (int i = 0; i < series.size(); i++) {
+            DataPoint dp = data.getDataPoint().get(i);
+            assertEquals(dp.getTimestamp(), series.getTimestamp(i));
+            assertEquals(dp.getValue(), series.getValue(i));
+        }
+    }
+
     protected void validateLastMetricData(LastMetricData data) {
         assertTrue("Resource name is empty", data.getResourceName().length() > 0);
         assertTrue("Invalid resource id", data.getResourceId() > 0);
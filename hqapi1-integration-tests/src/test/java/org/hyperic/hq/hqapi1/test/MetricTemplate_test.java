@@ -270,4 +270,34 @@ public class MetricTemplate_test extends MetricTestBase {
         MetricTemplateResponse getResponse = api.getMetricTemplate(Integer.MAX_VALUE);
         hqAssertFailureObjectNotFound(getResponse);
     }
+
+    public void testListTemplatesCached() throws Exception {
+        HQApi api = getApi();
+        ResourceApi resourceApi = api.getResourceApi();
+        MetricApi metricApi = api.getMetricApi();
+        metricApi.enableCache(60000, 10);
+
+        final String TYPE = "Linux";
+        ResourcePrototypeResponse prototype = resourceApi.getResourcePrototype(TYPE);
+        hqAssertSuccess(prototype);
+        ResourcePrototype pt = prototype.getResourcePrototype();
+
+        MetricTemplatesResponse templates = metricApi.getMetricTemplates(pt);
+        hqAssertSuccess(templates);
+        MetricTemplatesResponse cached = metricApi.getMetricTemplates(pt);
+        hqAssertSuccess(cached);
+        assertEquals(templates.getMetricTemplate().size(),
+                     cached.getMetricTemplate().size());
+        assertEquals(1, metricApi.getTemplateCache().getHitCount());
+
+        // Sync invalidates the cache
+        StatusResponse syncResponse =
+                metricApi.syncMetricTemplates(templates.getMetricTemplate());
+        hqAssertSuccess(syncResponse);
+        assertEquals(0, metricApi.getTemplateCache().size());
+
+        hqAssertSuccess(metricApi.getMetricTemplates(pt));
+        assertEquals(1, metricApi.getTemplateCache().getHitCount());
+        assertEquals(2, metricApi.getTemplateCache().getMissCount());
+    }
 }
@@ -29,6 +29,7 @@ package org.hyperic.hq.hqapi1.test;
 
 import org.hyperic.hq.hqapi1.HQApi;
 import org.hyperic.hq.hqapi1.MetricApi;
+import org.hyperic.hq.hqapi1.MetricIndex;
 import org.hyperic.hq.hqapi1.types.Metric;
 import org.hyperic.hq.hqapi1.types.MetricResponse;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
@@ -267,4 +268,40 @@ public class Metric_test extends MetricTestBase {
             hqAssertFailureInvalidParameters(syncResponse);            
         }
     }
+
+    public void testMetricIndex() throws Exception {
+
+        MetricApi api = getApi().getMetricApi();
+        Resource r = getLocalPlatformResource(false, false);
+        MetricsResponse resp = api.getMetrics(r, false);
+        hqAssertSuccess(resp);
+
+        MetricIndex index = new MetricIndex(api);
+        for (Metric m : resp.getMetric()) {
+            assertEquals(m.getId(), index.getMetricId(r.getId(),
+                                                      m.getMetricTemplate().getId()));
+            assertEquals(m.getId(), index.getMetricId(r.getId(),
+                                                      m.getMetricTemplate().getAlias()));
+        }
+        assertEquals(1, index.size());
+
+        assertEquals(MetricIndex.NOT_FOUND,
+                     index.getMetricId(r.getId(), Integer.MAX_VALUE));
+        assertEquals(MetricIndex.NOT_FOUND,
+                     index.getMetricId(r.getId(), "Some unknown alias"));
+        assertEquals(MetricIndex.NOT_FOUND,
+                     index.getMetricId(Integer.MAX_VALUE, 1));
+        assertEquals(1, index.size());
+
+        index.invalidate(r.getId());
+        assertEquals(0, index.size());
+
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(r);
+        index.warmUp(resources);
+        assertEquals(1, index.size());
+        Metric m = resp.getMetric().get(0);
+        assertEquals(m.getId(), index.getMetricId(r.getId(),
+                                                  m.getMetricTemplate().getId()));
+    }
 }
@@ -27,6 +27,7 @@
 
 package org.hyperic.hq.hqapi1.test;
 
+import org.hyperic.hq.hqapi1.HQApi;
 import org.hyperic.hq.hqapi1.ResourceApi;
 import org.hyperic.hq.hqapi1.types.ResourcePrototype;
 import org.hyperic.hq.hqapi1.types.ResourcePrototypeResponse;
@@ -68,4 +69,44 @@ public class ResourceGetPrototype_test extends HQApiTestBase {
         ResourcePrototypeResponse response = api.getResourcePrototype(null);
         hqAssertFailureInvalidParameters(response);
     }
+
+    public void testGetResourcePrototypeCached() throws Exception {
+
+        ResourceApi api = getApi().getResourceApi();
+        api.enableCache(60000, 10);
+
+        final String TYPE = "Linux";
+        ResourcePrototypeResponse response = api.getResourcePrototype(TYPE);
+        hqAssertSuccess(response);
+        assertEquals(0, api.getPrototypeCache().getHitCount());
+        assertEquals(1, api.getPrototypeCache().getMissCount());
+
+        ResourcePrototypeResponse cached = api.getResourcePrototype(TYPE);
+        hqAssertSuccess(cached);
+        assertEquals(TYPE, cached.getResourcePrototype().getName());
+        assertEquals(1, api.getPrototypeCache().getHitCount());
+
+        // Failures are not cached
+        final String INVALID = "Some unknown type";
+        hqAssertFailureObjectNotFound(api.getResourcePrototype(INVALID));
+        hqAssertFailureObjectNotFound(api.getResourcePrototype(INVALID));
+        assertEquals(1, api.getPrototypeCache().getHitCount());
+        assertEquals(3, api.getPrototypeCache().getMissCount());
+    }
+
+    public void testGetResourcePrototypeCachedWithTimeouts() throws Exception {
+
+        HQApi hqApi = getApi();
+        ResourceApi api = hqApi.getResourceApi();
+        api.enableCache(60000, 10);
+
+        final String TYPE = "Linux";
+        hqAssertSuccess(api.getResourcePrototype(TYPE));
+
+        // Views with other timeouts share the cache of their parent
+        ResourceApi view = hqApi.withRequestTimeout(30000).getResourceApi();
+        assertSame(api.getPrototypeCache(), view.getPrototypeCache());
+        hqAssertSuccess(view.getResourcePrototype(TYPE));
+        assertEquals(1, api.getPrototypeCache().getHitCount());
+    }
 }
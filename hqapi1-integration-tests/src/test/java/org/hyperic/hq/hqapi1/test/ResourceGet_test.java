@@ -27,14 +27,28 @@
 
 package org.hyperic.hq.hqapi1.test;
 
+import java.io.File;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hyperic.hq.hqapi1.ElementHandler;
 import org.hyperic.hq.hqapi1.HQApi;
+import org.hyperic.hq.hqapi1.HQConnection;
+import org.hyperic.hq.hqapi1.InventorySnapshot;
 import org.hyperic.hq.hqapi1.ResourceApi;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.ResourceInfo;
 import org.hyperic.hq.hqapi1.types.ResourceResponse;
 import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
 import org.hyperic.hq.hqapi1.types.User;
 
 public class ResourceGet_test extends ResourceTestBase {
@@ -371,6 +385,154 @@ public class ResourceGet_test extends ResourceTestBase {
         
         assertTrue(response.getResource().size() > 0);
     }
+
+    public void testGetPlatformResourcesWithTimeouts() throws Exception {
+        ResourceApi api = getApi().withRequestTimeout(60000).getResourceApi();
+
+        ResourcesResponse response = api.getPlatformResources(true, true);
+        hqAssertSuccess(response);
+        assertTrue(response.getResource().size() > 0);
+    }
+
+    public void testGetPlatformResourcesRequestTimeout() throws Exception {
+        ResourceApi api = getApi().withRequestTimeout(1).getResourceApi();
+
+        try {
+            api.getPlatformResources(true, true);
+            fail("Request did not time out");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+    }
+
+    public void testStreamPlatformResources() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        ResourcesResponse response = api.getPlatformResources(false, false);
+        hqAssertSuccess(response);
+
+        final List<Resource> streamed = new ArrayList<Resource>();
+        StatusResponse streamResponse =
+                api.getPlatformResources(false, false, new ElementHandler<Resource>() {
+                    public void handleElement(Resource r) {
+                        streamed.add(r);
+                    }
+                });
+        hqAssertSuccess(streamResponse);
+
+        assertEquals(response.getResource().size(), streamed.size());
+        for (Resource r : streamed) {
+            validateResource(r);
+        }
+    }
+
+    public void testGetPlatformResourcesModifiedSince() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+
+        final List<Resource> modified = new ArrayList<Resource>();
+        ElementHandler<Resource> handler = new ElementHandler<Resource>() {
+            public void handleElement(Resource r) {
+                modified.add(r);
+            }
+        };
+
+        StatusResponse response = api.getPlatformResources(false, false, 0, handler);
+        hqAssertSuccess(response);
+        assertTrue(modified.size() > 0);
+
+        modified.clear();
+        long future = System.currentTimeMillis() + 24 * 60 * 60 * 1000L;
+        response = api.getPlatformResources(false, false, future, handler);
+        hqAssertSuccess(response);
+        assertEquals(0, modified.size());
+    }
+
+    public void testGetResourceCoalesced() throws Exception {
+        HQConnection conn = getConnection();
+        conn.setCoalesceRequests(true);
+        final ResourceApi api = new HQApi(conn).getResourceApi();
+        final Resource localPlatform = getLocalPlatformResource(false, false);
+
+        final int THREADS = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<ResourceResponse>> futures =
+                    new ArrayList<Future<ResourceResponse>>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<ResourceResponse>() {
+                    public ResourceResponse call() throws Exception {
+                        start.await();
+                        return api.getResource(localPlatform.getId(), false, false);
+                    }
+                }));
+            }
+            // Release all callers at once so their requests overlap
+            start.countDown();
+
+            List<ResourceResponse> responses = new ArrayList<ResourceResponse>();
+            for (Future<ResourceResponse> f : futures) {
+                ResourceResponse response = f.get();
+                hqAssertSuccess(response);
+                assertEquals(localPlatform.getId(), response.getResource().getId());
+                responses.add(response);
+            }
+            assertTrue("No requests were coalesced", conn.getCoalescedCount() > 0);
+
+            // Every merged call got the very response of the call it joined,
+            // so only the requests actually sent return distinct instances
+            Map<ResourceResponse,Boolean> distinct =
+                    new IdentityHashMap<ResourceResponse,Boolean>();
+            for (ResourceResponse response : responses) {
+                distinct.put(response, Boolean.TRUE);
+            }
+            assertEquals(THREADS - conn.getCoalescedCount(), distinct.size());
+        } finally {
+            executor.shutdown();
+            conn.close();
+        }
+    }
+
+    public void testInventorySnapshot() throws Exception {
+        ResourceApi api = getApi().getResourceApi();
+        Resource localPlatform = getLocalPlatformResource(false, true);
+
+        File file = File.createTempFile("inventory", ".dat");
+        file.delete();
+        try {
+            InventorySnapshot snapshot = new InventorySnapshot(api, file, false);
+            hqAssertSuccess(snapshot.refresh());
+            assertTrue(file.exists());
+
+            Resource platform = snapshot.getPlatformResource(localPlatform.getName());
+            assertNotNull("Local platform not in snapshot", platform);
+            assertEquals(localPlatform.getId(), platform.getId());
+            assertEquals(localPlatform.getResource().size(),
+                         platform.getResource().size());
+            assertEquals(platform, snapshot.getResource(platform.getId()));
+            assertEquals(platform, snapshot.getResource(platform.getTypeId() + ":" +
+                                                        platform.getInstanceId()));
+            for (Resource child : platform.getResource()) {
+                assertEquals(platform, snapshot.getPlatformResource(child.getId()));
+            }
+
+            // Reload from disk and refresh incrementally
+            InventorySnapshot loaded = new InventorySnapshot(api, file, false);
+            assertEquals(snapshot.size(), loaded.size());
+            assertEquals(snapshot.getLastRefresh(), loaded.getLastRefresh());
+            assertNotNull(loaded.getPlatformResource(localPlatform.getName()));
+
+            hqAssertSuccess(loaded.refresh());
+            assertEquals(snapshot.size(), loaded.size());
+            assertTrue(loaded.getLastRefresh() >= snapshot.getLastRefresh());
+
+            // A snapshot taken with different options is not reused
+            InventorySnapshot verbose = new InventorySnapshot(api, file, true);
+            assertEquals(0, verbose.size());
+        } finally {
+            file.delete();
+        }
+    }
     
     public void testGetPlatformResourceByIp() throws Exception {
 
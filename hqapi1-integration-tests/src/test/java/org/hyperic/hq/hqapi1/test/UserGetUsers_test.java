@@ -27,6 +27,8 @@
 
 package org.hyperic.hq.hqapi1.test;
 
+import org.hyperic.hq.hqapi1.HQApi;
+import org.hyperic.hq.hqapi1.HQConnection;
 import org.hyperic.hq.hqapi1.UserApi;
 import org.hyperic.hq.hqapi1.types.User;
 import org.hyperic.hq.hqapi1.types.UsersResponse;
@@ -53,4 +55,20 @@ public class UserGetUsers_test extends UserTestBase {
             assertNotNull(u.getName());
         }
     }
+
+    public void testGetUsersNotModified() throws Exception {
+        HQConnection conn = getConnection();
+        conn.setResponseCacheSize(10);
+        UserApi api = new HQApi(conn).getUserApi();
+
+        UsersResponse response = api.getUsers();
+        hqAssertSuccess(response);
+        assertEquals(0, conn.getNotModifiedCount());
+
+        // Unchanged, so the cached response is returned
+        UsersResponse cached = api.getUsers();
+        hqAssertSuccess(cached);
+        assertSame(response, cached);
+        assertEquals(1, conn.getNotModifiedCount());
+    }
 }
@@ -66,5 +66,22 @@ public class WADLMetricData_test extends WADLTestBase {
         StatusResponse response = put.postApplicationXmlAsStatusResponse(request);
         hqAssertFailure(response);
     }
-}
 
+    public void testPutMulti() throws Exception {
+        HttpLocalhost8080HquHqapi1.MetricDataPutMultiHqu put = new HttpLocalhost8080HquHqapi1.MetricDataPutMultiHqu();
+
+        DataPoint dp = new DataPoint();
+        dp.setTimestamp(System.currentTimeMillis());
+        dp.setValue(0);
+
+        MetricDataPoints points = new MetricDataPoints();
+        points.setMetricId(Integer.MAX_VALUE);
+        points.getDataPoint().add(dp);
+
+        MetricsDataPointsRequest request = new MetricsDataPointsRequest();
+        request.getMetricDataPoints().add(points);
+
+        StatusResponse response = put.postApplicationXmlAsStatusResponse(request);
+        hqAssertFailure(response);
+    }
+}
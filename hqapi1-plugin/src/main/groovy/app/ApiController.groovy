@@ -1,6 +1,12 @@
 import org.hyperic.hq.hqu.rendit.BaseController
 
 import groovy.xml.StreamingMarkupBuilder
+import java.security.MessageDigest
+import java.util.zip.GZIPOutputStream
+import javax.servlet.http.HttpServletResponse
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamReader
+import org.hyperic.hq.hqapi1.Aggregation
 import org.hyperic.hq.hqapi1.ErrorCode
 
 class ApiController extends BaseController {
@@ -140,6 +146,103 @@ class ApiController extends BaseController {
         }
     }
 
+    /**
+     * Parse the optional interval, maxPoints and aggregation parameters of
+     * the metric data operations.
+     *
+     * @return A Map with failureXml set if the parameters are invalid,
+     * otherwise a Map with the interval to roll up to, which is null if no
+     * rollup was requested, and the aggregation to use.
+     */
+    protected Map getRollupParameters(params, start, end) {
+        def interval = params.getOne("interval")?.toLong()
+        def maxPoints = params.getOne("maxPoints")?.toInteger()
+        def aggregationName = params.getOne("aggregation")
+
+        def aggregation = Aggregation.AVG
+        if (aggregationName) {
+            try {
+                aggregation = Aggregation.valueOf(aggregationName.toUpperCase())
+            } catch (IllegalArgumentException e) {
+                return [failureXml: getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                                  "Unknown aggregation " +
+                                                  aggregationName)]
+            }
+        }
+        if (interval != null && interval < 1) {
+            return [failureXml: getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                              "Interval must be > 0")]
+        }
+        if (maxPoints != null && maxPoints < 1) {
+            return [failureXml: getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                              "Max points must be > 0")]
+        }
+
+        if (maxPoints != null && start != null && end != null && end >= start) {
+            // Buckets are aligned to the epoch, so the range may start and
+            // end part way into a bucket.  Dividing it into maxPoints - 1
+            // buckets leaves room for that, a single bucket has to cover
+            // everything up to the end.
+            long minInterval = end + 1
+            if (maxPoints > 1) {
+                long range = end - start + 1
+                minInterval = (range + maxPoints - 2).intdiv(maxPoints - 1)
+            }
+            interval = Math.max(interval ?: 1, minInterval)
+        }
+        return [interval: interval, aggregation: aggregation]
+    }
+
+    /**
+     * Roll up the given data points into buckets of the given interval.
+     * Buckets are aligned to multiples of the interval since the epoch, the
+     * same as MetricDataSeries.rollup() in the client, so they do not move
+     * between successive queries.
+     *
+     * @return A List of [timestamp:, value:] Maps in ascending time order,
+     * one per bucket that contains data.
+     */
+    protected List rollup(data, long interval, Aggregation aggregation) {
+        def buckets = new TreeMap()
+        for (dp in data) {
+            long ts = dp.timestamp
+            long bucketStart = ts - ts % interval
+            def b = buckets[bucketStart]
+            if (b == null) {
+                buckets[bucketStart] = [count: 1, sum: dp.value, min: dp.value,
+                                        max: dp.value, last: dp.value,
+                                        lastTs: ts]
+            } else {
+                b.count++
+                b.sum += dp.value
+                b.min = Math.min(b.min, dp.value)
+                b.max = Math.max(b.max, dp.value)
+                if (ts >= b.lastTs) {
+                    b.last = dp.value
+                    b.lastTs = ts
+                }
+            }
+        }
+
+        return buckets.collect { ts, b ->
+            def value
+            switch (aggregation) {
+                case Aggregation.MIN:
+                    value = b.min
+                    break
+                case Aggregation.MAX:
+                    value = b.max
+                    break
+                case Aggregation.LAST:
+                    value = b.last
+                    break
+                default:
+                    value = b.sum / b.count
+            }
+            [timestamp: ts, value: value]
+        }
+    }
+
     /**
      * Get POST data from the client.
      */
@@ -152,6 +255,124 @@ class ApiController extends BaseController {
         }
     }
 
+    /**
+     * Get the POST data as a stream, avoiding reading the whole body into
+     * memory for regular posts.  Multipart uploads are only available as a
+     * String and are still buffered, clients sending large requests should
+     * post the XML as the request body.
+     */
+    protected InputStream getPostDataStream() {
+        if (invokeArgs.request.contentType.contains("multipart")) {
+            return new ByteArrayInputStream(getUpload('postdata').getBytes("utf-8"))
+        } else {
+            return invokeArgs.request.inputStream
+        }
+    }
+
+    /**
+     * Get a StAX reader over the POST data.  DTDs and external entities
+     * are not processed.
+     */
+    protected XMLStreamReader getPostDataReader() {
+        def factory = XMLInputFactory.newInstance()
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        return factory.createXMLStreamReader(getPostDataStream(), "utf-8")
+    }
+
+    /**
+     * Check whether the client accepts gzip encoded responses.
+     */
+    protected boolean acceptsGzip() {
+        def acceptEncoding = invokeArgs.request.getHeader("Accept-Encoding")
+        return acceptEncoding && acceptEncoding.toLowerCase().contains("gzip")
+    }
+
+    /**
+     * Render the given XML.  If the client accepts gzip encoding the
+     * response is compressed, otherwise it is rendered as is.
+     */
+    protected void renderXml(Closure yield) {
+        if (!acceptsGzip()) {
+            super.renderXml(yield)
+            return
+        }
+
+        def builder = new StreamingMarkupBuilder()
+        builder.encoding = "UTF-8"
+
+        renderStream("text/xml") { os ->
+            def writer = new OutputStreamWriter(os, "UTF-8")
+            writer << builder.bind {
+                mkp.xmlDeclaration()
+                out << yield
+            }
+            writer.flush()
+        }
+    }
+
+    /**
+     * Render the given XML with an ETag computed over its content.  If the
+     * client already holds the same content, as given by the If-None-Match
+     * header, only a 304 Not Modified is sent.  Used for listings that
+     * rarely change, the XML is still built but not sent or parsed again.
+     */
+    protected void renderConditionalXml(Closure yield) {
+        def builder = new StreamingMarkupBuilder()
+        builder.encoding = "UTF-8"
+
+        def buf = new ByteArrayOutputStream()
+        def writer = new OutputStreamWriter(buf, "UTF-8")
+        writer << builder.bind {
+            mkp.xmlDeclaration()
+            out << yield
+        }
+        writer.flush()
+        def body = buf.toByteArray()
+
+        // Weak, since the same content may be sent gzip encoded or not
+        def etag = 'W/"' + MessageDigest.getInstance("SHA-1").digest(body).encodeHex() + '"'
+        def response = invokeArgs.response
+        response.setHeader("ETag", etag)
+
+        def ifNoneMatch = invokeArgs.request.getHeader("If-None-Match")
+        if (ifNoneMatch && ifNoneMatch.split(",")*.trim().contains(etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED)
+            rendered = true
+            return
+        }
+
+        renderStream("text/xml") { os ->
+            os.write(body)
+        }
+    }
+
+    /**
+     * Render a response of the given content type by passing the response
+     * OutputStream to the given closure.  The stream is gzip encoded if the
+     * client accepts it.
+     */
+    protected void renderStream(String contentType, Closure writer) {
+        def response = invokeArgs.response
+        response.setContentType(contentType)
+        if (contentType.startsWith("text/")) {
+            response.setCharacterEncoding("UTF-8")
+        }
+
+        if (acceptsGzip()) {
+            response.setHeader("Content-Encoding", "gzip")
+            response.addHeader("Vary", "Accept-Encoding")
+            def gzip = new GZIPOutputStream(response.outputStream)
+            writer(gzip)
+            gzip.finish()
+        } else {
+            def os = response.outputStream
+            writer(os)
+            os.flush()
+        }
+        rendered = true
+    }
+
     def dispatchRequest() {
 
         long start = System.currentTimeMillis()
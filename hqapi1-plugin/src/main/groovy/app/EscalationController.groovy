@@ -104,7 +104,7 @@ class EscalationController extends ApiController {
     }
 
     def list(params) {
-        renderXml() {
+        renderConditionalXml() {
             out << EscalationsResponse() {
                 out << getSuccessXML()
                 for (e in escalationHelper.allEscalations.sort {a, b -> a.name <=> b.name}) {
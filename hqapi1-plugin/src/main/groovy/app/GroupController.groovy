@@ -306,7 +306,7 @@ class GroupController extends ApiController {
             }        
         }
 
-        renderXml() {
+        renderConditionalXml() {
             out << GroupsResponse() {
                 if (failureXml) {
                     out << failureXml
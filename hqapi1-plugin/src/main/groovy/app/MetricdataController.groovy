@@ -1,12 +1,27 @@
 import org.hyperic.hq.context.Bootstrap;
 import org.hyperic.hq.hqapi1.ErrorCode;
+import org.hyperic.hq.hqapi1.MetricDataFormat;
+import org.hyperic.hq.hqapi1.MetricDataSeries;
 
 
+import org.hyperic.hq.measurement.MeasurementConstants
 import org.hyperic.hq.measurement.server.session.DataPoint as DP
 import org.hyperic.hq.measurement.server.session.MeasurementInserterHolder;
+import org.hyperic.hq.measurement.shared.DataManager
+import org.hyperic.hq.measurement.shared.MeasurementManager
+
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
 
 class MetricdataController extends ApiController {
 
+    // Number of data points handed to the inserter at a time by put
+    private static final int PUT_BATCH_SIZE = 1000
+
+    private measurementManager = Bootstrap.getBean(MeasurementManager.class)
+    private dataManager = Bootstrap.getBean(DataManager.class)
+
     private Closure getMetricDataXML(r) {
         { doc ->
             MetricData(resourceId: r.resource.id,
@@ -22,6 +37,38 @@ class MetricdataController extends ApiController {
         }
     }
 
+    /**
+     * Check whether the client asked for binary encoded metric data.
+     */
+    private boolean isBinaryFormat(params) {
+        return params.getOne("format") == MetricDataFormat.FORMAT_BINARY
+    }
+
+    /**
+     * Render the given results using the compact MetricDataFormat encoding.
+     */
+    private void renderMetricDataBinary(results) {
+        renderStream(MetricDataFormat.CONTENT_TYPE) { os ->
+            def out = new DataOutputStream(new BufferedOutputStream(os))
+            MetricDataFormat.writeHeader(out, results.size())
+            for (r in results) {
+                // TODO: Backend does not always return data in asending order
+                def data = r.data.sort {a, b -> a.timestamp <=> b.timestamp}
+                long[] timestamps = new long[data.size()]
+                double[] values = new double[data.size()]
+                data.eachWithIndex { dp, i ->
+                    timestamps[i] = dp.timestamp
+                    values[i] = dp.value
+                }
+                MetricDataFormat.writeSeries(out,
+                    new MetricDataSeries(r.resource.id, r.resource.name,
+                                         r.metric.id, r.metric.template.name,
+                                         timestamps, values))
+            }
+            out.flush()
+        }
+    }
+
     private Closure getLastMetricDataXML(r) {
         { doc ->
             LastMetricData(resourceId: r.resource.id,
@@ -55,11 +102,31 @@ class MetricdataController extends ApiController {
 		}
 	}
 	
+    /**
+     * Look up the Measurements for the given ids with a single query.
+     * @return A Map of metric id to Measurement.  Ids that could not be
+     * found are not included.
+     */
+    private Map findMeasurements(metricIds) {
+        def result = [:]
+        def ids = metricIds?.findAll { it != null }
+        if (!ids) {
+            return result
+        }
+
+        for (m in measurementManager.getMeasurements(ids.unique() as Integer[])) {
+            if (m) {
+                result[m.id] = m
+            }
+        }
+        return result
+    }
+
     /**
      * Validate metric parameters, returning a Closure representing the error
      * or null if the parameters are valid
      */
-    private Closure validateParameters(metricIds, start, end) {
+    private Closure validateParameters(metricIds, measurements, start, end) {
 
         if (start == null) {
             return getFailureXML(ErrorCode.INVALID_PARAMETERS,
@@ -77,14 +144,15 @@ class MetricdataController extends ApiController {
             return getFailureXML(ErrorCode.INVALID_PARAMETERS,
                                  "End time cannot be < start time")
         }
-        return validateParameters(metricIds)
+        return validateParameters(metricIds, measurements)
     }
 
     /**
-     * Validate metric parameters, returning a Closure representing the error
-     * or null if the parameters are valid
+     * Validate metric parameters against the Measurements returned by
+     * findMeasurements(), returning a Closure representing the error or null
+     * if the parameters are valid
      */
-    private Closure validateParameters(metricIds) {
+    private Closure validateParameters(metricIds, measurements) {
         if (metricIds == null || metricIds.size() == 0) {
             return getFailureXML(ErrorCode.INVALID_PARAMETERS,
                                  "Metric id not given")
@@ -95,8 +163,7 @@ class MetricdataController extends ApiController {
                 return getFailureXML(ErrorCode.INVALID_PARAMETERS,
                                      "Metric id not given")
             }
-            def metric = metricHelper.findMeasurementById(mid)
-            if (!metric) {
+            if (!measurements[mid]) {
                 return getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
                                      "Metric id " + mid + " not found")
             }
@@ -109,18 +176,33 @@ class MetricdataController extends ApiController {
         def start = params.getOne("start")?.toLong()
         def end = params.getOne("end")?.toLong()
 
-        def failureXml = validateParameters([metricId], start, end)
-        def metric = metricHelper.findMeasurementById(metricId)
+        def measurements = findMeasurements([metricId])
+        def failureXml = validateParameters([metricId], measurements, start, end)
+        def rollupParams = getRollupParameters(params, start, end)
+        if (!failureXml) {
+            failureXml = rollupParams.failureXml
+        }
+        def metric = measurements[metricId]
         def data
         if (!failureXml) {
             try {
                 data = metric.getData(start, end)
+                if (rollupParams.interval) {
+                    data = rollup(data, rollupParams.interval,
+                                  rollupParams.aggregation)
+                }
             } catch (Exception e) {
                 log.error("UnexpectedError: " + e.getMessage(), e);
                 failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
             }
         }
 
+        if (!failureXml && isBinaryFormat(params)) {
+            renderMetricDataBinary([[resource: metric.resource, metric: metric,
+                                     data: data]])
+            return
+        }
+
         renderXml() {
             MetricDataResponse() {
                 if (failureXml) {
@@ -138,8 +220,9 @@ class MetricdataController extends ApiController {
     def getLast(params) {
         def metricId = params.getOne("id")?.toInteger()
 
-        def failureXml = validateParameters([metricId])
-        def metric = metricHelper.findMeasurementById(metricId)
+        def measurements = findMeasurements([metricId])
+        def failureXml = validateParameters([metricId], measurements)
+        def metric = measurements[metricId]
         def data
         if (!failureXml) {
             try {
@@ -169,25 +252,43 @@ class MetricdataController extends ApiController {
         def start = params.getOne("start")?.toLong()
         def end = params.getOne("end")?.toLong()
 
-        def failureXml = validateParameters(metricIds, start, end)
+        def measurements = findMeasurements(metricIds)
+
+        def failureXml = validateParameters(metricIds, measurements, start, end)
+        def rollupParams = getRollupParameters(params, start, end)
+        if (!failureXml) {
+            failureXml = rollupParams.failureXml
+        }
 
         def results = []
         
         if (!failureXml) {
-            for (m in metricIds) {
-                try {
-                    // TODO: Switch to collections based API
-                    def metric = metricHelper.findMeasurementById(m)
+            try {
+                // DataManager has no collection based query for raw data,
+                // the List variant of getHistoricalData() aggregates across
+                // the measurements.  The Measurements are already loaded so
+                // each metric costs a single data query.
+                for (m in metricIds) {
+                    def metric = measurements[m]
                     def data = metric.getData(start, end)
+                    if (rollupParams.interval) {
+                        data = rollup(data, rollupParams.interval,
+                                      rollupParams.aggregation)
+                    }
                     results << [resource: metric.resource,
                                 metric: metric, data: data]
-                } catch (Exception e) {
-                    log.error("UnexpectedError: " + e.getMessage(), e);
-                    failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
                 }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
             }
         }
 
+        if (!failureXml && isBinaryFormat(params)) {
+            renderMetricDataBinary(results)
+            return
+        }
+
         renderXml() {
             MetricsDataResponse() {
                 if (failureXml) {
@@ -205,21 +306,25 @@ class MetricdataController extends ApiController {
     def getMultiLast(params) {
         def metricIds = params.get("id")*.toInteger()
 
-        def failureXml = validateParameters(metricIds)
+        def measurements = findMeasurements(metricIds)
+
+        def failureXml = validateParameters(metricIds, measurements)
 
         def results = []
 
         if (!failureXml) {
-            for (m in metricIds) {
-                try {
-                    def metric = metricHelper.findMeasurementById(m)
-                    def data = metric.getLastDataPoint()
+            try {
+                def lastData =
+                    dataManager.getLastDataPoints(new ArrayList(measurements.keySet()),
+                                                  MeasurementConstants.TIMERANGE_UNLIMITED)
+                for (m in metricIds) {
+                    def metric = measurements[m]
                     results << [resource: metric.resource,
-                                metric: metric, data: data]
-                } catch (Exception e) {
-                    log.error("UnexpectedError: " + e.getMessage(), e);
-                    failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
+                                metric: metric, data: lastData[m]]
                 }
+            } catch (Exception e) {
+                log.error("UnexpectedError: " + e.getMessage(), e);
+                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR)
             }
         }
 
@@ -282,42 +387,144 @@ class MetricdataController extends ApiController {
 
     def put(params) {
 
-        def inserter = null
+        def failureXml = null
+
+        def reader = null
+        try {
+            reader = getPostDataReader()
+            reader.nextTag()
+            def metricId = reader.getAttributeValue(null, "metricId")?.toInteger()
+
+            def metric = metricHelper.findMeasurementById(metricId)
+            if (!metric) {
+                failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                           "Unable to find metric with id = " +
+                                           metricId)
+            } else {
+                def holder = Bootstrap.getBean(MeasurementInserterHolder.class)
+                def inserter = metric.getTemplate().isAvailability() ?
+                    holder.availDataInserter : holder.dataInserter
+
+                // Every point is read and checked before any are inserted,
+                // so an invalid point leaves no partial data behind.
+                def buf = newPointBuffer()
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT &&
+                        reader.localName == "DataPoint") {
+                        addPoint(buf, reader)
+                        checkDataPoint(metric, buf.values[buf.count - 1])
+                    }
+                }
+
+                // Data points are only created for one batch at a time
+                for (int i = 0; i < buf.count; i += PUT_BATCH_SIZE) {
+                    def points = []
+                    int end = Math.min(buf.count, i + PUT_BATCH_SIZE)
+                    for (int j = i; j < end; j++) {
+                        points << new DP(metric.id, buf.values[j], buf.timestamps[j])
+                    }
+                    inserter.insertMetrics(points)
+                }
+                log.info("Inserted " + buf.count + " metrics for " + metric.template.name)
+            }
+        } catch (XMLStreamException xe) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Unable to parse request: " +
+                                       xe.getMessage())
+        } catch (IllegalArgumentException ia) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       ia.getMessage())
+        } catch (Exception e) {
+            failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR,
+                                       "Error inserting metrics: " +
+                                       e.getMessage())
+            log.warn("Error inserting metrics", e)
+        } finally {
+            reader?.close()
+        }
+
+        renderXml() {
+            StatusResponse() {
+                if (failureXml) {
+                    out << failureXml
+                } else {
+                    out << getSuccessXML()
+                }
+            }
+        }
+    }
+
+    def putMulti(params) {
 
         def failureXml = null
 
-        def dataRequest = new XmlParser().parseText(getPostData())
-        def metricId = dataRequest.'@metricId'?.toInteger()
+        def data = null
+        def reader = null
+        try {
+            reader = getPostDataReader()
+            data = readMetricDataPoints(reader)
+        } catch (XMLStreamException xe) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       "Unable to parse request: " +
+                                       xe.getMessage())
+        } catch (IllegalArgumentException ia) {
+            failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                       ia.getMessage())
+        } catch (Exception e) {
+            failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR,
+                                       "Error reading metrics: " +
+                                       e.getMessage())
+            log.warn("Error reading metrics", e)
+        } finally {
+            reader?.close()
+        }
 
-        def metric = metricHelper.findMeasurementById(metricId)
-        if (!metric) {
-            failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
-                                       "Unable to find metric with id = " +
-                                       metricId)
-        } else {
-            try {
-            	def points = []
-            	for (dp in dataRequest["DataPoint"]) {
-                	long ts = dp.'@timestamp'?.toLong()
-                	double val = dp.'@value'?.toDouble()
-                	points << createDataPoint(metric, val, ts)
-            	}
-            	log.info("Inserting " + points.size() + " metrics for " + metric.template.name)
-
-            	if (metric.getTemplate().isAvailability()) {
-            		inserter = Bootstrap.getBean(MeasurementInserterHolder.class).availDataInserter
-            	} else {
-                	inserter = Bootstrap.getBean(MeasurementInserterHolder.class).dataInserter
+        if (!failureXml) {
+            def metricIds = data.keySet() as List
+            def measurements = findMeasurements(metricIds)
+
+            // Validate every metric before inserting so a bad request leaves
+            // no partial data behind.
+            def missing = metricIds.find { !measurements[it] }
+            if (metricIds.size() == 0) {
+                failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                           "No metrics given")
+            } else if (missing != null || metricIds.contains(null)) {
+                failureXml = getFailureXML(ErrorCode.OBJECT_NOT_FOUND,
+                                           "Unable to find metric with id = " +
+                                           missing)
+            } else {
+                try {
+                    def points = []
+                    def availPoints = []
+                    data.each { metricId, buf ->
+                        def metric = measurements[metricId]
+                        def target = metric.getTemplate().isAvailability() ?
+                            availPoints : points
+                        for (int i = 0; i < buf.count; i++) {
+                            checkDataPoint(metric, buf.values[i])
+                            target << new DP(metric.id, buf.values[i], buf.timestamps[i])
+                        }
+                    }
+                    log.info("Inserting " + (points.size() + availPoints.size()) +
+                             " metrics for " + measurements.size() + " measurements")
+
+                    def holder = Bootstrap.getBean(MeasurementInserterHolder.class)
+                    if (availPoints) {
+                        holder.availDataInserter.insertMetrics(availPoints)
+                    }
+                    if (points) {
+                        holder.dataInserter.insertMetrics(points)
+                    }
+                } catch (IllegalArgumentException ia) {
+                    failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
+                                               ia.getMessage())
+                } catch (Exception e) {
+                    failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR,
+                                               "Error inserting metrics: " +
+                                               e.getMessage())
+                    log.warn("Error inserting metrics", e)
                 }
-                inserter.insertMetrics(points)
-            } catch (IllegalArgumentException ia) {
-            	failureXml = getFailureXML(ErrorCode.INVALID_PARAMETERS,
-            							   ia.getMessage()) 
-            } catch (Exception e) {
-                failureXml = getFailureXML(ErrorCode.UNEXPECTED_ERROR,
-                                           "Error inserting metrics: " +
-                                           e.getMessage())
-                log.warn("Error inserting metrics", e)
             }
         }
 
@@ -331,14 +538,69 @@ class MetricdataController extends ApiController {
             }
         }
     }
-    
-    private createDataPoint(metric, value, timestamp) {
+
+    private checkDataPoint(metric, double value) {
     	if (metric.getTemplate().isAvailability()) {
     		if (value != 0.0 && value != 1.0 && value != -0.01) {
     			throw new IllegalArgumentException("Invalid availability data point: " + value)
     		}
     	}
-    	
-    	return new DP(metric.id, value, timestamp)
+    }
+
+    /**
+     * Read the MetricDataPoints of a putMulti request, keyed by metric id.
+     */
+    private Map readMetricDataPoints(XMLStreamReader reader) {
+        def data = [:]
+        def buf = null
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue
+            }
+            if (reader.localName == "MetricDataPoints") {
+                def metricId = reader.getAttributeValue(null, "metricId")?.toInteger()
+                buf = data[metricId]
+                if (buf == null) {
+                    buf = newPointBuffer()
+                    data[metricId] = buf
+                }
+            } else if (reader.localName == "DataPoint" && buf != null) {
+                addPoint(buf, reader)
+            }
+        }
+        return data
+    }
+
+    /**
+     * Data points read from a request are kept in primitive arrays rather
+     * than as objects until they are inserted.
+     */
+    private Map newPointBuffer() {
+        return [timestamps: new long[64], values: new double[64], count: 0]
+    }
+
+    private addPoint(Map buf, XMLStreamReader reader) {
+        def timestamp = reader.getAttributeValue(null, "timestamp")
+        def value = reader.getAttributeValue(null, "value")
+        if (timestamp == null || value == null) {
+            throw new IllegalArgumentException("DataPoint requires a timestamp " +
+                                               "and a value")
+        }
+        long ts
+        double val
+        try {
+            ts = timestamp.toLong()
+            val = value.toDouble()
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid DataPoint timestamp " +
+                                               timestamp + " or value " + value)
+        }
+        if (buf.count == buf.timestamps.length) {
+            buf.timestamps = Arrays.copyOf(buf.timestamps, buf.count * 2)
+            buf.values = Arrays.copyOf(buf.values, buf.count * 2)
+        }
+        buf.timestamps[buf.count] = ts
+        buf.values[buf.count] = val
+        buf.count++
     }
 }
\ No newline at end of file
@@ -187,7 +187,7 @@ class ResourceController extends ApiController {
             prototypes = resourceHelper.findAllAppdefPrototypes()
         }
         
-        renderXml() {
+        renderConditionalXml() {
             out << ResourcePrototypesResponse() {
                 out << getSuccessXML()
                 for (p in prototypes.sort {a, b -> a.name <=> b.name}) {
@@ -1262,7 +1262,15 @@ class ResourceController extends ApiController {
     def getPlatformResources(params) {
         boolean children = params.getOne("children", "false").toBoolean()
         boolean verbose = params.getOne("verbose", "false").toBoolean()
+        Long modifiedSince = params.getOne("modifiedSince")?.toLong()
         def resources = resourceHelper.findAllPlatforms()
+
+        if (modifiedSince != null) {
+            // Only platforms that changed, or have a child that changed
+            resources = resources.findAll {
+                isModifiedSince(it, modifiedSince)
+            }
+        }
     
         renderXml() {
             out << ResourcesResponse() {
@@ -1275,6 +1283,28 @@ class ResourceController extends ApiController {
 
     }
     
+    private boolean isModifiedSince(r, long since) {
+        def appdefRes = null
+        if (r.isPlatform()) {
+            appdefRes = toPlatform(r)
+        } else if (r.isServer()) {
+            appdefRes = toServer(r)
+        } else if (r.isService()) {
+            appdefRes = toService(r)
+        }
+
+        if (appdefRes == null || appdefRes.modifiedTime == null ||
+            appdefRes.modifiedTime > since) {
+            return true
+        }
+        if (r.isService()) {
+            return false
+        }
+        return r.getViewableChildren(user).any { child ->
+            isModifiedSince(child, since)
+        }
+    }
+
     private Collection<Resource> findPlatformByIpAddr(ip) {
         return platMan.getPlatformByIpAddr(user, ip)
     }
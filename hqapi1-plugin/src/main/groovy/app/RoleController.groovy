@@ -53,7 +53,7 @@ class RoleController extends ApiController {
             roles = roleHelper.allRoles
         }
 
-        renderXml() {
+        renderConditionalXml() {
             out << RolesResponse() {
                 out << getSuccessXML()
                 for (role in roles.sort {a, b -> a.name <=> b.name}) {
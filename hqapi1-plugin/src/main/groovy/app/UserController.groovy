@@ -22,7 +22,7 @@ class UserController extends ApiController {
     }
 
     def list(params) {
-        renderXml() {
+        renderConditionalXml() {
             out << UsersResponse() {
                 out << getSuccessXML()
                 for (u in userHelper.allUsers.sort {a, b -> a.name <=> b.name}) {
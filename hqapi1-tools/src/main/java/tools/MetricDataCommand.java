@@ -29,11 +29,13 @@ package org.hyperic.hq.hqapi1.tools;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import org.hyperic.hq.hqapi1.Aggregation;
 import org.hyperic.hq.hqapi1.GroupApi;
 import org.hyperic.hq.hqapi1.HQApi;
 import org.hyperic.hq.hqapi1.MetricApi;
 import org.hyperic.hq.hqapi1.MetricDataApi;
 import org.hyperic.hq.hqapi1.ResourceApi;
+import org.hyperic.hq.hqapi1.Rollup;
 import org.hyperic.hq.hqapi1.types.GroupResponse;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
 import org.hyperic.hq.hqapi1.types.DataPoint;
@@ -64,6 +66,8 @@ public class MetricDataCommand extends AbstractCommand {
     private static final String OPT_GROUP_ID     = "groupId";
     private static final String OPT_FORMAT_DATES = "formatDates";
     private static final String OPT_HOURS        = "hours";
+    private static final String OPT_MAX_POINTS   = "maxPoints";
+    private static final String OPT_AGGREGATION  = "aggregation";
 
     private static final String FORMAT = "yyyy-MM-dd HH:mm:ss";
 
@@ -106,6 +110,14 @@ public class MetricDataCommand extends AbstractCommand {
         p.accepts(OPT_FORMAT_DATES, "When specified timestamps will be formatted " +
                                     "using the given format.  Defaults to " + FORMAT)
                 .withOptionalArg().ofType(String.class);
+        p.accepts(OPT_MAX_POINTS, "When specified the data is rolled up by the " +
+                                  "server to at most this many points per metric")
+                .withRequiredArg().ofType(Integer.class);
+        p.accepts(OPT_AGGREGATION, "How data is rolled up when " + OPT_MAX_POINTS +
+                                   " is given, one of " +
+                                   Arrays.toString(Aggregation.values()).toLowerCase() +
+                                   ".  Defaults to avg")
+                .withRequiredArg().ofType(String.class);
 
         OptionSet options = getOptions(p, args);
 
@@ -134,14 +146,31 @@ public class MetricDataCommand extends AbstractCommand {
             }
         }
 
+        Rollup rollup = null;
+        if (options.has(OPT_MAX_POINTS)) {
+            Aggregation aggregation = Aggregation.AVG;
+            if (options.has(OPT_AGGREGATION)) {
+                String name = (String)options.valueOf(OPT_AGGREGATION);
+                try {
+                    aggregation = Aggregation.valueOf(name.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Unknown aggregation " + name);
+                    System.exit(-1);
+                }
+            }
+            rollup = Rollup.maxPoints((Integer)options.valueOf(OPT_MAX_POINTS),
+                                      aggregation);
+        }
+
         if (options.has(OPT_METRIC_ID)) {
             MetricResponse metric =
                     metricApi.getMetric((Integer)getRequired(options,
                                                              OPT_METRIC_ID));
             checkSuccess(metric);
 
-            MetricDataResponse data =
-                    dataApi.getData(metric.getMetric(), start, end);
+            MetricDataResponse data = rollup == null ?
+                    dataApi.getData(metric.getMetric(), start, end) :
+                    dataApi.getData(metric.getMetric(), start, end, rollup);
             checkSuccess(data);
 
             CsvTable table = new CsvTable(new String[] {"Value"}, format);
@@ -167,8 +196,9 @@ public class MetricDataCommand extends AbstractCommand {
 
             CsvTable table = new CsvTable(metricNames, format);
             for (int i = 0; i < metrics.getMetric().size(); i++) {
-                MetricDataResponse data =
-                        dataApi.getData(metrics.getMetric().get(i), start, end);
+                MetricDataResponse data = rollup == null ?
+                        dataApi.getData(metrics.getMetric().get(i), start, end) :
+                        dataApi.getData(metrics.getMetric().get(i), start, end, rollup);
                 checkSuccess(data);
 
                 for (DataPoint dp : data.getMetricData().getDataPoint()) {
@@ -31,6 +31,7 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import org.hyperic.hq.hqapi1.AgentApi;
 import org.hyperic.hq.hqapi1.HQApi;
+import org.hyperic.hq.hqapi1.InventorySnapshot;
 import org.hyperic.hq.hqapi1.ResourceApi;
 import org.hyperic.hq.hqapi1.XmlUtil;
 import org.hyperic.hq.hqapi1.types.AgentResponse;
@@ -41,9 +42,11 @@ import org.hyperic.hq.hqapi1.types.ResourceProperty;
 import org.hyperic.hq.hqapi1.types.ResourcePrototypeResponse;
 import org.hyperic.hq.hqapi1.types.ResourceResponse;
 import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
 import org.hyperic.hq.hqapi1.types.StatusResponse;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -87,6 +90,7 @@ public class ResourceCommand extends AbstractCommand {
     private static String OPT_SETNAME     = "setName";
     private static String OPT_SETCONFIG   = "setConfig";
     private static String OPT_ALLPLATFORMS= "allPlatforms";
+    private static String OPT_SNAPSHOT    = "snapshot";
 
     private void printUsage() {
         System.err.println("One of " + Arrays.toString(COMMANDS) + " required");
@@ -147,6 +151,11 @@ public class ResourceCommand extends AbstractCommand {
         p.accepts(OPT_PARENT_PLATFORM, "Return the parent platform Resource.  " +
                                        "Can only be used with --" + OPT_ID);
         p.accepts(OPT_ALLPLATFORMS, "List all platforms in inventory");
+        p.accepts(OPT_SNAPSHOT, "If specified, keep a local inventory snapshot " +
+                  "in the given file and answer --" + OPT_ALLPLATFORMS + ", --" +
+                  OPT_PLATFORM + ", --" + OPT_ID + " and --" + OPT_AEID +
+                  " from it after an incremental refresh.").
+                withRequiredArg().ofType(String.class);
 
         OptionSet options = getOptions(p, args);
 
@@ -175,8 +184,25 @@ public class ResourceCommand extends AbstractCommand {
             System.exit(-1);
         }
 
-        ResourcesResponse resources;
-        if (options.has(OPT_PROTOTYPE)) {
+        ResourcesResponse resources = null;
+        if (options.has(OPT_SNAPSHOT)) {
+            if (isSnapshotQuery(options)) {
+                File file = new File((String)options.valueOf(OPT_SNAPSHOT));
+                InventorySnapshot snapshot = new InventorySnapshot(resourceApi, file,
+                                                                   verbose);
+                checkSuccess(snapshot.refresh());
+                resources = getSnapshotResources(snapshot, options, children);
+            } else {
+                System.err.println("Ignoring --" + OPT_SNAPSHOT + ", only --" +
+                                   OPT_ALLPLATFORMS + ", --" + OPT_PLATFORM +
+                                   ", --" + OPT_ID + " and --" + OPT_AEID +
+                                   " can be answered from a snapshot");
+            }
+        }
+
+        if (resources != null) {
+            // Answered from the local snapshot
+        } else if (options.has(OPT_PROTOTYPE)) {
             String prototype = (String) options.valueOf(OPT_PROTOTYPE);
             ResourcePrototypeResponse protoResponse =
                     resourceApi.getResourcePrototype(prototype);
@@ -251,6 +277,73 @@ public class ResourceCommand extends AbstractCommand {
         XmlUtil.serialize(resources, System.out, Boolean.TRUE);
     }
 
+    /**
+     * @return true if the requested resources can be looked up in a
+     * snapshot.
+     */
+    private static boolean isSnapshotQuery(OptionSet options) {
+        return options.has(OPT_ALLPLATFORMS) || options.has(OPT_PLATFORM) ||
+               options.has(OPT_ID) || options.has(OPT_AEID);
+    }
+
+    /**
+     * Look up the requested resources in the snapshot.
+     *
+     * @return The resources found.
+     * @see #isSnapshotQuery(OptionSet)
+     */
+    private ResourcesResponse getSnapshotResources(InventorySnapshot snapshot,
+                                                   OptionSet options,
+                                                   boolean children) {
+        List<Resource> found = new ArrayList<Resource>();
+        if (options.has(OPT_ALLPLATFORMS)) {
+            found.addAll(snapshot.getPlatformResources());
+        } else if (options.has(OPT_PLATFORM)) {
+            found.add(snapshot.getPlatformResource((String)options.valueOf(OPT_PLATFORM)));
+        } else if (options.has(OPT_ID)) {
+            Integer id = (Integer)options.valueOf(OPT_ID);
+            if (options.has(OPT_PARENT_PLATFORM)) {
+                found.add(snapshot.getPlatformResource(id));
+            } else {
+                found.add(snapshot.getResource(id));
+            }
+        } else {
+            found.add(snapshot.getResource((String)options.valueOf(OPT_AEID)));
+        }
+
+        ResourcesResponse resources = new ResourcesResponse();
+        resources.setStatus(ResponseStatus.SUCCESS);
+        for (Resource r : found) {
+            if (r == null) {
+                System.err.println("Error running command: Resource not found");
+                System.exit(-1);
+            }
+            resources.getResource().add(children ? r : withoutChildren(r));
+        }
+        return resources;
+    }
+
+    /**
+     * Snapshots always include child resources, copy the given resource
+     * without them.
+     */
+    private Resource withoutChildren(Resource r) {
+        Resource copy = new Resource();
+        copy.setId(r.getId());
+        copy.setName(r.getName());
+        copy.setDescription(r.getDescription());
+        copy.setLocation(r.getLocation());
+        copy.setInstanceId(r.getInstanceId());
+        copy.setTypeId(r.getTypeId());
+        copy.setResourcePrototype(r.getResourcePrototype());
+        copy.setAgent(r.getAgent());
+        copy.getResourceConfig().addAll(r.getResourceConfig());
+        copy.getResourceProperty().addAll(r.getResourceProperty());
+        copy.getIp().addAll(r.getIp());
+        copy.getResourceInfo().addAll(r.getResourceInfo());
+        return copy;
+    }
+
     private void sync(String[] args) throws Exception {
    
         OptionParser p = getOptionParser();
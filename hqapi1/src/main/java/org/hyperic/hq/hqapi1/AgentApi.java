@@ -173,7 +173,7 @@ public class AgentApi extends BaseApi {
         params.put("id", new String[] { String.valueOf(agent.getId()) });
         params.put("plugin", new String[] { plugin });
         return doGet("agent/transferPlugin.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
     
     
@@ -227,7 +227,7 @@ public class AgentApi extends BaseApi {
         params.put("id", new String[] { String.valueOf(agent.getId()) });
         params.put("bundle", new String[] { bundle });
         return doGet("agent/bundlePush.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
         
 }
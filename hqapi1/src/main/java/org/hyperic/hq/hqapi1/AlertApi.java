@@ -28,6 +28,7 @@
 package org.hyperic.hq.hqapi1;
 
 import org.hyperic.hq.hqapi1.types.AgentResponse;
+import org.hyperic.hq.hqapi1.types.Alert;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.StatusResponse;
 import org.hyperic.hq.hqapi1.types.AlertsResponse;
@@ -120,6 +121,48 @@ public class AlertApi extends BaseApi {
                                      Boolean notFixed,
                                      Integer groupId)
             throws IOException
+    {
+        Map<String,String[]> params = getFindParams(begin, end, count, severity,
+                                                    inEscalation, notFixed, groupId);
+        return doGet("alert/find.hqu", params, 
+                     new XmlResponseHandler<AlertsResponse>(AlertsResponse.class));
+    }
+
+    /**
+     * Find Alerts in the system, passing each Alert to the given handler as
+     * soon as it has been read.
+     *
+     * @param begin The beginning of the time window in epoch-millis.
+     * @param end The end of the time window in epoch-millis.
+     * @param count The maximum number of Alert instances to return.
+     * @param severity The minimum severity to query.  1 = LOW, 2 = MEDIUM, 3 = HIGH
+     * @param inEscalation If true, only return Alerts which are in Escalation
+     * @param notFixed If true, only return Alerts which are not fixed.
+     * @param groupId Only return Alerts for resources within the given Group.
+     * @param handler The {@link ElementHandler} each Alert is passed to.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * the Alerts were successfully queried.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public StatusResponse findAlerts(long begin, long end, int count,
+                                     int severity, Boolean inEscalation,
+                                     Boolean notFixed,
+                                     Integer groupId,
+                                     ElementHandler<Alert> handler)
+            throws IOException
+    {
+        Map<String,String[]> params = getFindParams(begin, end, count, severity,
+                                                    inEscalation, notFixed, groupId);
+        return doGet("alert/find.hqu", params,
+                     new XmlStreamingResponseHandler<Alert>("Alert", Alert.class, handler));
+    }
+
+    private Map<String,String[]> getFindParams(long begin, long end, int count,
+                                               int severity, Boolean inEscalation,
+                                               Boolean notFixed,
+                                               Integer groupId)
     {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("begin", new String[] { Long.toString(begin)});
@@ -136,9 +179,7 @@ public class AlertApi extends BaseApi {
         if (groupId != null) {
             params.put("groupId", new String[] { Integer.toString(groupId)});
         }
-
-        return doGet("alert/find.hqu", params, 
-                     new XmlResponseHandler<AlertsResponse>(AlertsResponse.class));
+        return params;
     }
 
     /**
@@ -263,7 +304,7 @@ public class AlertApi extends BaseApi {
         params.put("reason", new String[] { reason });
 
         return doGet("alert/fix.hqu", params, 
-                     new XmlResponseHandler<AlertsResponse>(AlertsResponse.class));
+                     new XmlResponseHandler<AlertsResponse>(AlertsResponse.class), false);
     }
 
     /**
@@ -319,7 +360,7 @@ public class AlertApi extends BaseApi {
         params.put("pause", new String[] { Long.toString(pause)});
 
         return doGet("alert/ack.hqu", params, 
-                     new XmlResponseHandler<AlertsResponse>(AlertsResponse.class));
+                     new XmlResponseHandler<AlertsResponse>(AlertsResponse.class), false);
     }
 
     /**
@@ -359,6 +400,6 @@ public class AlertApi extends BaseApi {
         params.put("id", ids);
 
         return doGet("alert/delete.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 }
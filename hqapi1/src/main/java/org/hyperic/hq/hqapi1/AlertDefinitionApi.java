@@ -105,6 +105,59 @@ public class AlertDefinitionApi extends BaseApi {
                                                         String resourceNameFilter,
                                                         String groupName)
         throws IOException
+    {
+        Map<String,String[]> params = getListParams(excludeTypeBased, escalation,
+                                                    alertNameFilter, resourceNameFilter,
+                                                    groupName);
+        return doGet("alertdefinition/listDefinitions.hqu", params,
+                     new XmlResponseHandler<AlertDefinitionsResponse>(AlertDefinitionsResponse.class));
+    }
+
+    /**
+     * Find all {@link org.hyperic.hq.hqapi1.types.AlertDefinition}s in the
+     * system, passing each definition to the given handler as soon as it has
+     * been read.
+     *
+     * @param excludeTypeBased Flag to control whether instances of type based
+     * alerts will be included.
+     * @param escalation The {@link Escalation} to filter by
+     * @param alertNameFilter Filter returned definitions by definition name
+     * using the given regular expression.  A value of null will result in no
+     * filtering being performed.
+     * @param resourceNameFilter Filter returned definitions by resource name
+     * using the given regular expression.  A value of null will result in no
+     * filtering being performed.
+     * @param groupName Filter returned definitions such that only definitions
+     * on resources belonging to the given group are returned.
+     * @param handler The {@link ElementHandler} each AlertDefinition is passed to.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * the AlertDefinitions were successfully queried.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public StatusResponse getAlertDefinitions(boolean excludeTypeBased,
+                                              Escalation escalation,
+                                              String alertNameFilter,
+                                              String resourceNameFilter,
+                                              String groupName,
+                                              ElementHandler<AlertDefinition> handler)
+        throws IOException
+    {
+        Map<String,String[]> params = getListParams(excludeTypeBased, escalation,
+                                                    alertNameFilter, resourceNameFilter,
+                                                    groupName);
+        return doGet("alertdefinition/listDefinitions.hqu", params,
+                     new XmlStreamingResponseHandler<AlertDefinition>("AlertDefinition",
+                                                                      AlertDefinition.class,
+                                                                      handler));
+    }
+
+    private Map<String,String[]> getListParams(boolean excludeTypeBased,
+                                               Escalation escalation,
+                                               String alertNameFilter,
+                                               String resourceNameFilter,
+                                               String groupName)
     {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("excludeTypeBased", new String[] { Boolean.toString(excludeTypeBased)});
@@ -120,9 +173,7 @@ public class AlertDefinitionApi extends BaseApi {
         if (escalation != null) {
             params.put("escalationId", new String[] { Integer.toString(escalation.getId())});
         }
-
-        return doGet("alertdefinition/listDefinitions.hqu", params,
-                     new XmlResponseHandler<AlertDefinitionsResponse>(AlertDefinitionsResponse.class));
+        return params;
     }
 
     /**
@@ -205,7 +256,8 @@ public class AlertDefinitionApi extends BaseApi {
         request.getResource().addAll(resources);
 
         return doPost("alertdefinition/listDefinitionsByResources.hqu", request,
-                      new XmlResponseHandler<AlertDefinitionsResponse>(AlertDefinitionsResponse.class));
+                      new XmlResponseHandler<AlertDefinitionsResponse>(AlertDefinitionsResponse.class),
+                      true);
     }
 
     /**
@@ -246,7 +298,7 @@ public class AlertDefinitionApi extends BaseApi {
         params.put("id", new String[] { Integer.toString(id) });
 
         return doGet("alertdefinition/delete.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -266,6 +318,7 @@ public class AlertDefinitionApi extends BaseApi {
         request.getAlertDefinition().addAll(definitions);
 
         return doPost("alertdefinition/sync.hqu", request,
-                      new XmlResponseHandler<AlertDefinitionsResponse>(AlertDefinitionsResponse.class));
+                      new XmlResponseHandler<AlertDefinitionsResponse>(AlertDefinitionsResponse.class),
+                      true);
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+/**
+ * Receives the result of an operation submitted through {@link HQAsyncApi}.
+ * Callbacks are invoked on the thread that executed the operation, so
+ * implementations should not block.
+ */
+public interface ApiCallback<T> {
+
+    /**
+     * Called when the operation completed.  Note that a completed operation
+     * may still carry a {@link org.hyperic.hq.hqapi1.types.ResponseStatus#FAILURE}
+     * status in the returned response.
+     *
+     * @param result The response returned by the operation.
+     */
+    void completed(T result);
+
+    /**
+     * Called when the operation could not be completed, for example due to
+     * a network error.
+     *
+     * @param e The exception that caused the operation to fail.
+     */
+    void failed(Exception e);
+}
@@ -86,7 +86,7 @@ public class AutodiscoveryApi extends BaseApi {
         params.put("id", new String[] { String.valueOf(id) });
 
         return doGet("autodiscovery/approve.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
     
 	public StatusResponse approveServer(int id) 
@@ -97,6 +97,6 @@ public class AutodiscoveryApi extends BaseApi {
 		params.put("serverId", new String[] { String.valueOf(id) });
 
 		return doGet("autodiscovery/approve.hqu", params,
-					 new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+					 new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
 	}
 }
@@ -28,7 +28,10 @@
 package org.hyperic.hq.hqapi1;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 abstract class BaseApi {
     private static final String BASE_URI = "/hqu/hqapi1/";
@@ -47,12 +50,109 @@ abstract class BaseApi {
      * '/hqu/hqapi1/user/listUsers.hqu'
      * @param params  A map parameters to pass to the action.  Each HTTP
      * parameter may have multiple values.
+     * @see #doGet(String, java.util.Map, ResponseHandler, boolean)
      */
     <T> T doGet(String action, Map<String, String[]> params,
                 ResponseHandler<T> responseHandler)
         throws IOException
     {
-        return _conn.doGet(BASE_URI + action, params, responseHandler);
+        return doGet(action, params, responseHandler, true);
+    }
+
+    /**
+     * Issue a GET for the specified controller/action.
+     *
+     * @param idempotent true if the action only reads, so the request may be
+     * retried after it may have reached the HQ server.  Many GET actions
+     * such as control/execute.hqu or alert/fix.hqu change state and must
+     * pass false.
+     */
+    <T> T doGet(String action, Map<String, String[]> params,
+                ResponseHandler<T> responseHandler, boolean idempotent)
+        throws IOException
+    {
+        return _conn.doGet(BASE_URI + action, params, responseHandler,
+                           idempotent);
+    }
+
+    /**
+     * Issue a GET for a read-only controller/action, merging it with an
+     * identical GET already in flight if the connection coalesces requests.
+     * Only for actions that do not change state on the HQ server.
+     *
+     * @see HQConnection#setCoalesceRequests(boolean)
+     */
+    <T> T doCoalescedGet(final String action, final Map<String, String[]> params,
+                         final ResponseHandler<T> responseHandler)
+        throws IOException
+    {
+        SingleFlight singleFlight = _conn.getSingleFlight();
+        String key = getFlightKey(singleFlight, action, params, responseHandler);
+        if (key == null) {
+            return doGet(action, params, responseHandler);
+        }
+        return singleFlight.execute(key, new Callable<T>() {
+            public T call() throws IOException {
+                return doGet(action, params, responseHandler);
+            }
+        });
+    }
+
+    /**
+     * Issue a GET for the specified controller/action, revalidating a
+     * cached response with If-None-Match if the connection has a response
+     * cache.  Only for read-only actions that render an ETag, identical
+     * GETs in flight are merged as for
+     * {@link #doCoalescedGet(String, java.util.Map, ResponseHandler)}.
+     *
+     * @see HQConnection#setResponseCacheSize(int)
+     */
+    <T> T doConditionalGet(final String action, final Map<String, String[]> params,
+                           final ResponseHandler<T> responseHandler)
+        throws IOException
+    {
+        SingleFlight singleFlight = _conn.getSingleFlight();
+        String key = getFlightKey(singleFlight, action, params, responseHandler);
+        if (key == null) {
+            return _conn.doConditionalGet(BASE_URI + action, params, responseHandler,
+                                          true);
+        }
+        return singleFlight.execute(key, new Callable<T>() {
+            public T call() throws IOException {
+                return _conn.doConditionalGet(BASE_URI + action, params, responseHandler,
+                                              true);
+            }
+        });
+    }
+
+    /**
+     * Get the key identical GETs are merged on, or null if this GET may not
+     * be merged.  Only GETs parsed into a response object are merged,
+     * handlers that stream or write to a file act on every response.
+     * The timeouts are part of the key, so a caller never waits on a request
+     * allowed to run longer than its own.
+     */
+    private String getFlightKey(SingleFlight singleFlight, String action,
+                                Map<String, String[]> params,
+                                ResponseHandler<?> responseHandler) {
+        if (singleFlight == null ||
+            responseHandler.getClass() != XmlResponseHandler.class) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(action);
+        // Parameter order must not matter
+        for (Map.Entry<String, String[]> e :
+                new TreeMap<String, String[]>(params).entrySet()) {
+            key.append('&').append(e.getKey()).append('=')
+               .append(Arrays.toString(e.getValue()));
+        }
+        key.append('#')
+           .append(((XmlResponseHandler<?>)responseHandler).getResponseClass().getName())
+           .append('#').append(_conn.getConnectionTimeout())
+           .append(',').append(_conn.getSocketTimeout())
+           .append(',').append(_conn.getRequestTimeout());
+        return key.toString();
     }
 
     /**
@@ -66,6 +166,32 @@ abstract class BaseApi {
     <T> T doPost(String action, Object o, ResponseHandler<T> responseHandler)
         throws IOException
     {
-        return _conn.doPost(BASE_URI + action, o, responseHandler);
+        return doPost(action, o, responseHandler, false);
+    }
+
+    /**
+     * Issue a POST for the specified controller/action.
+     *
+     * @param idempotent true if the action is safe to repeat, such as a sync
+     * of the complete state of an object, so the request may be retried
+     * after it may have reached the HQ server.
+     */
+    <T> T doPost(String action, Object o, ResponseHandler<T> responseHandler,
+                 boolean idempotent)
+        throws IOException
+    {
+        return _conn.doPost(BASE_URI + action, o, responseHandler, idempotent);
+    }
+
+    /**
+     * Issue a POST for the specified controller/action with the object as
+     * the raw XML body, for actions that stream the POST data.
+     *
+     * @see HQConnection#doPostXml(String, Object, ResponseHandler)
+     */
+    <T> T doPostXml(String action, Object o, ResponseHandler<T> responseHandler)
+        throws IOException
+    {
+        return _conn.doPostXml(BASE_URI + action, o, responseHandler);
     }
 }
@@ -0,0 +1,382 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.ServiceError;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Splits a metric data request for a long list of ids into chunks, runs the
+ * chunks with bounded parallelism and merges the results into a single
+ * {@link BulkMetricsDataResponse}.  Keeps each request's query string to a
+ * reasonable length and lets the HQ server work on several chunks at once.
+ * <br><br>
+ * Also splits a long time range for a single metric into windows that are
+ * fetched in parallel and stitched back together in time order.
+ */
+final class BulkFetcher {
+
+    private static Log _log = LogFactory.getLog(BulkFetcher.class);
+
+    static final int DEFAULT_CHUNK_SIZE = 250;
+    static final int DEFAULT_PARALLELISM = 4;
+    static final long DEFAULT_WINDOW = 24 * 60 * 60 * 1000L; // 1 day.
+
+    /**
+     * A request for a single chunk of ids.
+     */
+    interface ChunkRequest {
+        MetricsDataResponse execute(List<Integer> ids) throws IOException;
+    }
+
+    /**
+     * A request for a single window of a time range.  Both start and end
+     * are inclusive.
+     */
+    interface RangeRequest {
+        MetricDataResponse execute(long start, long end) throws IOException;
+    }
+
+    private static final ThreadFactory _threadFactory = new ThreadFactory() {
+        private final AtomicInteger _threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HQApi-BulkFetch-" + _threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private static ExecutorService _executor;
+
+    private BulkFetcher() {
+    }
+
+    /**
+     * Run the given request for all ids, in chunks of at most chunkSize ids
+     * with at most parallelism chunks in flight.
+     *
+     * @throws IOException If every chunk failed with a network error.
+     */
+    static BulkMetricsDataResponse fetch(List<Integer> ids, int chunkSize,
+                                         int parallelism,
+                                         final ChunkRequest request)
+        throws IOException
+    {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be > 0");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be > 0");
+        }
+
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        for (int i = 0; i < ids.size(); i += chunkSize) {
+            chunks.add(ids.subList(i, Math.min(i + chunkSize, ids.size())));
+        }
+        if (chunks.isEmpty()) {
+            // Let the server report the missing ids
+            chunks.add(ids);
+        }
+
+        List<Callable<MetricsDataResponse>> requests =
+                new ArrayList<Callable<MetricsDataResponse>>(chunks.size());
+        for (final List<Integer> chunk : chunks) {
+            requests.add(new Callable<MetricsDataResponse>() {
+                public MetricsDataResponse call() throws IOException {
+                    return request.execute(chunk);
+                }
+            });
+        }
+
+        List<MetricsDataResponse> responses =
+                new ArrayList<MetricsDataResponse>(chunks.size());
+        List<IOException> errors = new ArrayList<IOException>(chunks.size());
+        executeAll(requests, parallelism, responses, errors);
+
+        return merge(chunks, responses, errors);
+    }
+
+    /**
+     * Run the given request for [start, end] split into windows of at most
+     * the given length, with at most parallelism windows in flight.  The
+     * data points of all windows are returned in time order, each timestamp
+     * at most once.
+     *
+     * @return The stitched response, or the response of the first window
+     * that failed.
+     * @throws IOException If any window failed with a network error.
+     */
+    static MetricDataResponse fetchRange(long start, long end, long window,
+                                         int parallelism,
+                                         final RangeRequest request)
+        throws IOException
+    {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be > 0");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be > 0");
+        }
+
+        List<Callable<MetricDataResponse>> requests =
+                new ArrayList<Callable<MetricDataResponse>>();
+        if (end <= start) {
+            // Let the server validate the range
+            requests.add(getRangeCallable(request, start, end));
+        } else {
+            for (long ws = start; ws <= end; ws += window) {
+                // Windows never overlap, the server's range is inclusive
+                long we = Math.min(ws + window - 1, end);
+                requests.add(getRangeCallable(request, ws, we));
+                if (we == end) {
+                    break;
+                }
+            }
+        }
+
+        List<MetricDataResponse> responses =
+                new ArrayList<MetricDataResponse>(requests.size());
+        List<IOException> errors = new ArrayList<IOException>(requests.size());
+        executeAll(requests, parallelism, responses, errors);
+
+        MetricDataResponse result = null;
+        long last = Long.MIN_VALUE;
+
+        for (int i = 0; i < responses.size(); i++) {
+            if (errors.get(i) != null) {
+                throw errors.get(i);
+            }
+            MetricDataResponse response = responses.get(i);
+            if (!ResponseStatus.SUCCESS.equals(response.getStatus())) {
+                return response;
+            }
+
+            MetricData data = response.getMetricData();
+            if (result == null) {
+                result = response;
+            } else if (result.getMetricData() == null) {
+                result.setMetricData(data);
+            } else if (data != null) {
+                for (DataPoint p : data.getDataPoint()) {
+                    if (p.getTimestamp() > last) {
+                        result.getMetricData().getDataPoint().add(p);
+                        last = p.getTimestamp();
+                    }
+                }
+                continue;
+            }
+
+            // The first data returned is taken as is
+            if (data != null && !data.getDataPoint().isEmpty()) {
+                last = data.getDataPoint().get(data.getDataPoint().size() - 1).getTimestamp();
+            }
+        }
+        return result;
+    }
+
+    private static Callable<MetricDataResponse> getRangeCallable(final RangeRequest request,
+                                                                 final long start,
+                                                                 final long end) {
+        return new Callable<MetricDataResponse>() {
+            public MetricDataResponse call() throws IOException {
+                return request.execute(start, end);
+            }
+        };
+    }
+
+    /**
+     * Run the given requests with at most parallelism requests in flight.
+     * For each request, in order, its response is added to responses and
+     * null to errors, or null to responses and the IOException it threw to
+     * errors.
+     */
+    static <R> void executeAll(List<Callable<R>> requests, int parallelism,
+                               List<R> responses, List<IOException> errors)
+        throws IOException
+    {
+        if (parallelism == 1 || requests.size() == 1) {
+            for (Callable<R> request : requests) {
+                try {
+                    responses.add(request.call());
+                    errors.add(null);
+                } catch (IOException e) {
+                    responses.add(null);
+                    errors.add(e);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return;
+        }
+
+        // Each worker takes the next request until none are left, so at
+        // most parallelism requests of this call are in flight.
+        final List<Callable<R>> work = requests;
+        final int count = requests.size();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReferenceArray<R> results = new AtomicReferenceArray<R>(count);
+        final AtomicReferenceArray<Throwable> failures =
+                new AtomicReferenceArray<Throwable>(count);
+        Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    try {
+                        results.set(i, work.get(i).call());
+                    } catch (Throwable t) {
+                        failures.set(i, t);
+                    }
+                }
+            }
+        };
+
+        ExecutorService executor = getExecutor();
+        List<Future<?>> workers = new ArrayList<Future<?>>(parallelism);
+        try {
+            for (int i = 0; i < Math.min(parallelism, count); i++) {
+                workers.add(executor.submit(worker));
+            }
+            for (Future<?> future : workers) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            next.set(count);
+            for (Future<?> future : workers) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " +
+                                             "bulk request");
+        } catch (ExecutionException e) {
+            // The worker catches everything its requests throw
+            throw new IllegalStateException(e.getCause());
+        }
+
+        for (int i = 0; i < count; i++) {
+            Throwable cause = failures.get(i);
+            if (cause == null) {
+                responses.add(results.get(i));
+                errors.add(null);
+            } else if (cause instanceof IOException) {
+                responses.add(null);
+                errors.add((IOException)cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * @return The executor running the requests of all bulk calls, created
+     * on first use.  Its threads are daemons and exit once idle.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (_executor == null) {
+            _executor = Executors.newCachedThreadPool(_threadFactory);
+        }
+        return _executor;
+    }
+
+    private static BulkMetricsDataResponse merge(List<List<Integer>> chunks,
+                                                 List<MetricsDataResponse> responses,
+                                                 List<IOException> errors)
+        throws IOException
+    {
+        BulkMetricsDataResponse result = new BulkMetricsDataResponse();
+        IOException firstError = null;
+        int ioFailures = 0;
+
+        for (int i = 0; i < chunks.size(); i++) {
+            IOException e = errors.get(i);
+            MetricsDataResponse response = responses.get(i);
+
+            if (e != null) {
+                if (firstError == null) {
+                    firstError = e;
+                }
+                ioFailures++;
+                ServiceError error = new ServiceError();
+                error.setErrorCode("UnexpectedError");
+                error.setReasonText("Error requesting chunk: " + e.getMessage());
+                result.getChunkFailure().add(new ChunkFailure(chunks.get(i), error));
+                if (_log.isDebugEnabled()) {
+                    _log.debug("Error requesting chunk " + (i + 1) + " of " +
+                               chunks.size(), e);
+                }
+            } else if (ResponseStatus.SUCCESS.equals(response.getStatus())) {
+                result.getMetricData().addAll(response.getMetricData());
+            } else {
+                result.getChunkFailure().add(new ChunkFailure(chunks.get(i),
+                                                              response.getError()));
+            }
+        }
+
+        if (ioFailures == chunks.size()) {
+            // Nothing got through, treat it like any single failed request
+            throw firstError;
+        }
+
+        if (result.getChunkFailure().isEmpty()) {
+            result.setStatus(ResponseStatus.SUCCESS);
+        } else {
+            result.setStatus(ResponseStatus.FAILURE);
+            result.setError(result.getChunkFailure().get(0).getError());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.ServiceError;
+
+import java.util.List;
+
+/**
+ * A chunk of a bulk request that could not be completed.
+ *
+ * @see BulkMetricsDataResponse#getChunkFailure()
+ */
+public class ChunkFailure {
+
+    private final List<Integer> _ids;
+    private final ServiceError _error;
+
+    ChunkFailure(List<Integer> ids, ServiceError error) {
+        _ids = ids;
+        _error = error;
+    }
+
+    /**
+     * @return The ids that were requested in the failed chunk.
+     */
+    public List<Integer> getIds() {
+        return _ids;
+    }
+
+    /**
+     * @return The error returned for the chunk.
+     */
+    public ServiceError getError() {
+        return _error;
+    }
+}
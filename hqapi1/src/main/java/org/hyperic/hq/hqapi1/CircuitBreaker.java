@@ -0,0 +1,235 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+/**
+ * A circuit breaker protecting an HQ server from clients that keep sending
+ * requests while it is failing.
+ * <br><br>
+ * The breaker tracks the outcome of the most recent requests.  Requests that
+ * fail with a network error or a 5xx response count as failures, as do
+ * requests slower than the slow call threshold if one is set.  Once the
+ * failure rate over the window reaches the failure threshold the breaker
+ * opens and {@link HQConnection} fails requests immediately with a
+ * ServiceUnavailable error.  After the open time has passed a single trial
+ * request is let through; the breaker closes again if it succeeds and
+ * reopens otherwise.
+ * <br><br>
+ * Connections have no breaker unless circuitBreaker=true is set in the
+ * client properties or one is given to
+ * {@link HQConnection#setCircuitBreaker(CircuitBreaker)}.
+ * <br><br>
+ * This class is thread safe.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        /** Requests are let through. */
+        CLOSED,
+        /** Requests are rejected. */
+        OPEN,
+        /** A single trial request is let through. */
+        HALF_OPEN
+    }
+
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+    public static final int DEFAULT_MINIMUM_REQUESTS = 20;
+    public static final double DEFAULT_FAILURE_THRESHOLD = 0.5;
+    public static final long DEFAULT_OPEN_TIME = 10000;
+
+    private final boolean[] _window;
+    private final int _minimumRequests;
+    private final double _failureThreshold;
+    private final long _openTime;
+    private final long _slowCallThreshold;
+
+    private State _state = State.CLOSED;
+    private int _position = 0;
+    private int _count = 0;
+    private int _failures = 0;
+    private long _openedAt = 0;
+    private boolean _trialInFlight = false;
+    private long _rejected = 0;
+    private long _timesOpened = 0;
+
+    /**
+     * Create a circuit breaker with the default settings and no slow call
+     * threshold.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_REQUESTS,
+             DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME, 0);
+    }
+
+    /**
+     * @param windowSize The number of most recent requests the failure rate
+     * is calculated over.
+     * @param minimumRequests The number of requests in the window required
+     * before the breaker can open.
+     * @param failureThreshold The failure rate, between 0 and 1, at which
+     * the breaker opens.
+     * @param openTime The time the breaker stays open before letting a trial
+     * request through, in milliseconds.
+     * @param slowCallThreshold The time after which a request counts as a
+     * failure, in milliseconds, or 0 to only count errors.
+     */
+    public CircuitBreaker(int windowSize, int minimumRequests,
+                          double failureThreshold, long openTime,
+                          long slowCallThreshold) {
+        if (windowSize < 1 || minimumRequests < 1 || minimumRequests > windowSize) {
+            throw new IllegalArgumentException("Invalid window size " + windowSize +
+                                               " or minimum requests " + minimumRequests);
+        }
+        if (failureThreshold <= 0 || failureThreshold > 1) {
+            throw new IllegalArgumentException("Failure threshold must be > 0 and <= 1");
+        }
+        _window = new boolean[windowSize];
+        _minimumRequests = minimumRequests;
+        _failureThreshold = failureThreshold;
+        _openTime = openTime;
+        _slowCallThreshold = slowCallThreshold;
+    }
+
+    /**
+     * @return true if a request may be sent.  Every permitted request must
+     * be followed by a call to {@link #record(long, boolean)} or
+     * {@link #cancel()}.
+     */
+    synchronized boolean allowRequest() {
+        if (_state == State.OPEN) {
+            if (System.currentTimeMillis() - _openedAt < _openTime) {
+                _rejected++;
+                return false;
+            }
+            _state = State.HALF_OPEN;
+            _trialInFlight = false;
+        }
+        if (_state == State.HALF_OPEN) {
+            if (_trialInFlight) {
+                _rejected++;
+                return false;
+            }
+            _trialInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * Record the outcome of a permitted request.
+     *
+     * @param latency The time taken to receive the response, in milliseconds.
+     * @param failed Whether the request failed.
+     */
+    synchronized void record(long latency, boolean failed) {
+        if (_slowCallThreshold > 0 && latency > _slowCallThreshold) {
+            failed = true;
+        }
+
+        if (_state == State.HALF_OPEN) {
+            if (failed) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+
+        if (_count == _window.length) {
+            if (_window[_position]) {
+                _failures--;
+            }
+        } else {
+            _count++;
+        }
+        _window[_position] = failed;
+        if (failed) {
+            _failures++;
+        }
+        _position = (_position + 1) % _window.length;
+
+        if (_state == State.CLOSED && _count >= _minimumRequests &&
+            _failures >= _failureThreshold * _count) {
+            open();
+        }
+    }
+
+    /**
+     * Release a permitted request that was never sent.
+     */
+    synchronized void cancel() {
+        if (_state == State.HALF_OPEN) {
+            _trialInFlight = false;
+        }
+    }
+
+    private void open() {
+        _state = State.OPEN;
+        _openedAt = System.currentTimeMillis();
+        _timesOpened++;
+    }
+
+    private void close() {
+        _state = State.CLOSED;
+        _position = 0;
+        _count = 0;
+        _failures = 0;
+    }
+
+    /**
+     * @return The current state of the breaker.
+     */
+    public synchronized State getState() {
+        if (_state == State.OPEN &&
+            System.currentTimeMillis() - _openedAt >= _openTime) {
+            return State.HALF_OPEN;
+        }
+        return _state;
+    }
+
+    /**
+     * @return The failure rate over the current window, between 0 and 1.
+     */
+    public synchronized double getFailureRate() {
+        return _count == 0 ? 0 : (double)_failures / _count;
+    }
+
+    /**
+     * @return The number of requests rejected by the breaker.
+     */
+    public synchronized long getRejectedCount() {
+        return _rejected;
+    }
+
+    /**
+     * @return The number of times the breaker has opened.
+     */
+    public synchronized long getOpenedCount() {
+        return _timesOpened;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of concurrent requests {@link HQConnection} sends to an
+ * HQ server, adapting the limit to how the server copes.
+ * <br><br>
+ * The limit follows an additive increase, multiplicative decrease scheme.
+ * It shrinks by the backoff ratio when a request fails with a network error
+ * or a 5xx response, or when response latency rises above the tolerance
+ * times its long term average, which is a sign of requests queueing on the
+ * server.  Latency is tracked per action, since some actions take orders of
+ * magnitude longer than others.  The limit shrinks at most once per limit's
+ * worth of completed requests, so a burst of failures from requests that
+ * were all in flight together counts as a single congestion signal.  It
+ * grows by one for every limit's worth of fast, successful requests made
+ * while the limit is in use.
+ * <br><br>
+ * Requests over the limit wait for a slot for up to the connection timeout
+ * of the connection and are then failed with a ServiceUnavailable error.
+ * <br><br>
+ * This class is thread safe.
+ */
+public class ConcurrencyLimiter {
+
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    // Smoothing factors for the short and long term latency averages
+    private static final double SHORT_ALPHA = 0.2;
+    private static final double LONG_ALPHA = 0.02;
+
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final double _backoffRatio;
+    private final double _latencyTolerance;
+
+    private double _limit;
+    private int _inFlight = 0;
+    private long _completed = 0;
+    private long _nextDecrease = -1;
+    private final Map<String,Latency> _latencies = new HashMap<String,Latency>();
+    private long _rejected = 0;
+
+    /**
+     * Create a limiter starting at, and never exceeding, the given limit.
+     *
+     * @param maxLimit The maximum number of concurrent requests.
+     */
+    public ConcurrencyLimiter(int maxLimit) {
+        this(maxLimit, DEFAULT_MIN_LIMIT, maxLimit, DEFAULT_BACKOFF_RATIO,
+             DEFAULT_LATENCY_TOLERANCE);
+    }
+
+    /**
+     * @param initialLimit The starting number of concurrent requests.
+     * @param minLimit The lowest the limit can shrink to.
+     * @param maxLimit The highest the limit can grow to.
+     * @param backoffRatio The factor, between 0 and 1, the limit is
+     * multiplied by on failure.
+     * @param latencyTolerance How far above its long term average latency
+     * may rise before the limit shrinks.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                              double backoffRatio, double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit ||
+            initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + " <= " +
+                                               initialLimit + " <= " + maxLimit);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+        }
+        _limit = initialLimit;
+        _minLimit = minLimit;
+        _maxLimit = maxLimit;
+        _backoffRatio = backoffRatio;
+        _latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Wait for a request slot.
+     *
+     * @param timeout The maximum time to wait, in milliseconds, or 0 to wait
+     * indefinitely.
+     * @return true if a slot was acquired, in which case
+     * {@link #release(long, boolean)} must be called once the request
+     * completes.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    synchronized boolean acquire(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (_inFlight >= (int)_limit) {
+            if (timeout == 0) {
+                wait();
+            } else {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    _rejected++;
+                    return false;
+                }
+                wait(wait);
+            }
+        }
+        _inFlight++;
+        return true;
+    }
+
+    /**
+     * Release a request slot and adapt the limit to the request's outcome.
+     *
+     * @param action The action requested, latency is compared against
+     * earlier requests for the same action.
+     * @param latency The time taken to receive the response, in
+     * milliseconds, or -1 if no response was received.
+     * @param failed Whether the request failed.
+     */
+    synchronized void release(String action, long latency, boolean failed) {
+        int inFlight = _inFlight--;
+        _completed++;
+
+        if (failed) {
+            decrease();
+        } else if (latency >= 0) {
+            Latency l = _latencies.get(action);
+            if (l == null) {
+                l = new Latency(latency);
+                _latencies.put(action, l);
+            } else {
+                l.update(latency);
+            }
+
+            if (l.shortTerm > _latencyTolerance * l.longTerm) {
+                decrease();
+            } else if (inFlight >= _limit / 2) {
+                // Only grow while the limit is actually being used
+                _limit = Math.min(_maxLimit, _limit + 1 / _limit);
+            }
+        }
+        notifyAll();
+    }
+
+    private void decrease() {
+        // Requests sent before the last decrease still see the congestion
+        // that caused it, wait until they and at least a limit's worth of
+        // requests completed.
+        if (_completed <= _nextDecrease) {
+            return;
+        }
+        _limit = Math.max(_minLimit, _limit * _backoffRatio);
+        _nextDecrease = _completed + Math.max(_inFlight, (int)_limit);
+    }
+
+    /**
+     * @return The current concurrency limit.
+     */
+    public synchronized int getLimit() {
+        return (int)_limit;
+    }
+
+    /**
+     * @return The number of requests currently in flight.
+     */
+    public synchronized int getInFlight() {
+        return _inFlight;
+    }
+
+    /**
+     * @return The number of requests rejected after waiting for a slot.
+     */
+    public synchronized long getRejectedCount() {
+        return _rejected;
+    }
+
+    // Short and long term latency averages of a single action
+    private static class Latency {
+        double shortTerm;
+        double longTerm;
+
+        Latency(long latency) {
+            shortTerm = latency;
+            longTerm = latency;
+        }
+
+        void update(long latency) {
+            shortTerm += SHORT_ALPHA * (latency - shortTerm);
+            longTerm += LONG_ALPHA * (latency - longTerm);
+        }
+    }
+}
@@ -189,6 +189,6 @@ public class ControlApi extends BaseApi {
         params.put("arguments", arguments);
 
         return doGet("control/execute.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 }
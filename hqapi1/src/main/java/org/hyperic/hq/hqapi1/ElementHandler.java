@@ -0,0 +1,50 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.IOException;
+
+/**
+ * Receives elements of a list response one at a time as they are read from
+ * the HQ server, rather than after the complete response has been
+ * deserialized.
+ *
+ * @see XmlStreamingResponseHandler
+ */
+public interface ElementHandler<E> {
+
+    /**
+     * Handle a single element of the response.
+     *
+     * @param element The deserialized element.
+     * @throws IOException To abort processing of the remainder of the
+     * response.
+     */
+    void handleElement(E element) throws IOException;
+}
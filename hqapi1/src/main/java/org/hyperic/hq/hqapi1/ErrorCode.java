@@ -74,7 +74,13 @@ public enum ErrorCode {
      * Operation not supported.
      */
     NOT_SUPPORTED("NotSupported",
-                  "The requested operation is not supported");
+                  "The requested operation is not supported"),
+
+    /**
+     * The HQ server is not accepting requests from this client.
+     */
+    SERVICE_UNAVAILABLE("ServiceUnavailable",
+                        "The HQ server is unavailable");
 
     private final String _errorCode;
     private final String _reasonText;
@@ -127,7 +127,7 @@ public class EscalationApi extends BaseApi {
         req.getEscalation().add(esc);
         return doPost("escalation/update.hqu",
                       req,
-                      new XmlResponseHandler<EscalationResponse>(EscalationResponse.class));
+                      new XmlResponseHandler<EscalationResponse>(EscalationResponse.class), true);
     }
 
     /**
@@ -141,8 +141,8 @@ public class EscalationApi extends BaseApi {
      */
     public EscalationsResponse getEscalations()
         throws IOException {
-        return doGet("escalation/list.hqu", new HashMap<String,String[]>(),
-                     new XmlResponseHandler<EscalationsResponse>(EscalationsResponse.class));
+        return doConditionalGet("escalation/list.hqu", new HashMap<String,String[]>(),
+                                new XmlResponseHandler<EscalationsResponse>(EscalationsResponse.class));
     }
     
     /**
@@ -160,7 +160,7 @@ public class EscalationApi extends BaseApi {
         EscalationsRequest req = new EscalationsRequest();
         req.getEscalation().addAll(escs);
         return doPost("escalation/sync.hqu", req, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -178,6 +178,6 @@ public class EscalationApi extends BaseApi {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("id", new String[] { Integer.toString(id) });
         return doGet("escalation/delete.hqu",
-                     params, new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     params, new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 }
@@ -6,13 +6,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Method;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.Response;
 import org.hyperic.hq.hqapi1.types.ServiceError;
 
 /**
@@ -23,13 +22,13 @@ import org.hyperic.hq.hqapi1.types.ServiceError;
  * @author Jennifer Hickey
  * 
  */
-public class FileResponseHandler<T> implements ResponseHandler<T> {
+public class FileResponseHandler<T extends Response> implements ResponseHandler<T> {
 
     private static Log _log = LogFactory.getLog(FileResponseHandler.class);
 
     private final File targetFile;
 
-    private Class<T> clazz;
+    private ResponseFactory<T> factory;
 
     /**
      * 
@@ -39,48 +38,16 @@ public class FileResponseHandler<T> implements ResponseHandler<T> {
      */
     public FileResponseHandler(File targetFile, Class<T> clazz) {
         this.targetFile = targetFile;
-        this.clazz = clazz;
+        this.factory = ResponseFactory.getFactory(clazz);
     }
 
     public T getErrorResponse(ServiceError error)
             throws IOException {
-        try {
-            T ret = clazz.newInstance();
-
-            Method setResponse = clazz.getMethod("setStatus", ResponseStatus.class);
-            setResponse.invoke(ret, ResponseStatus.FAILURE);
-
-            Method setError = clazz.getMethod("setError", ServiceError.class);
-            setError.invoke(ret, error);
-
-            return ret;
-        } catch (Exception e) {
-            // This shouldn't happen unless programmer error. For instance,
-            // a result object not containing a Status or Error field.
-            if (_log.isDebugEnabled()) {
-                _log.debug("Error generating error response", e);
-            }
-
-            throw new IOException("Error generating Error response");
-        }
+        return factory.createErrorResponse(error);
     }
     
     private T getSuccessResponse() throws IOException {
-        try {
-            T ret = clazz.newInstance();
-
-            Method setResponse = clazz.getMethod("setStatus", ResponseStatus.class);
-            setResponse.invoke(ret, ResponseStatus.SUCCESS);
-            return ret;
-        } catch (Exception e) {
-            // This shouldn't happen unless programmer error. For instance,
-            // a result object not containing a Status field.
-            if (_log.isDebugEnabled()) {
-                _log.debug("Error generating error response", e);
-            }
-
-            throw new IOException("Error generating Error response");
-        }
+        return factory.createSuccessResponse();
     }
 
     public T handleResponse(HttpResponse response) throws IOException {
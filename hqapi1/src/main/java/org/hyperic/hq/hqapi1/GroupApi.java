@@ -162,7 +162,7 @@ public class GroupApi extends BaseApi {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("id", new String[] { Integer.toString(id) });
         return doGet("group/delete.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -176,8 +176,8 @@ public class GroupApi extends BaseApi {
     public GroupsResponse getGroups()
         throws IOException
     {
-        return doGet("group/list.hqu", new HashMap<String,String[]>(),
-                     new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+        return doConditionalGet("group/list.hqu", new HashMap<String,String[]>(),
+                                new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
     }
 
     /**
@@ -194,8 +194,8 @@ public class GroupApi extends BaseApi {
     {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("roleId", new String[] { role.getId().toString() });
-        return doGet("group/list.hqu", params,
-                     new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+        return doConditionalGet("group/list.hqu", params,
+                                new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
     }
     
     /**
@@ -213,8 +213,8 @@ public class GroupApi extends BaseApi {
     {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("compatible", new String[] { Boolean.toString(true) });
-        return doGet("group/list.hqu", params, 
-                     new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+        return doConditionalGet("group/list.hqu", params, 
+                                new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
     }
 
     /**
@@ -232,8 +232,8 @@ public class GroupApi extends BaseApi {
     {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("compatible", new String[] { Boolean.toString(false) });
-        return doGet("group/list.hqu", params,
-                     new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+        return doConditionalGet("group/list.hqu", params,
+                                new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
     }
 
     /**
@@ -248,8 +248,8 @@ public class GroupApi extends BaseApi {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("containing", new String[] { Boolean.toString(true) });
         params.put("resourceId", new String[] { Integer.toString(r.getId()) });
-        return doGet("group/list.hqu", params,
-                     new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+        return doConditionalGet("group/list.hqu", params,
+                                new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
     }
     
     /**
@@ -264,8 +264,8 @@ public class GroupApi extends BaseApi {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("containing", new String[] { Boolean.toString(false) });
         params.put("resourceId", new String[] { Integer.toString(r.getId()) });
-        return doGet("group/list.hqu", params,
-                     new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+        return doConditionalGet("group/list.hqu", params,
+                                new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
     }
 
     /**
@@ -284,7 +284,7 @@ public class GroupApi extends BaseApi {
         GroupsRequest groupRequest = new GroupsRequest();
         groupRequest.getGroup().addAll(groups);
         return doPost("group/sync.hqu", groupRequest, 
-                      new XmlResponseHandler<GroupsResponse>(GroupsResponse.class));
+                      new XmlResponseHandler<GroupsResponse>(GroupsResponse.class), true);
     }
     
 }
@@ -27,6 +27,7 @@
 
 package org.hyperic.hq.hqapi1;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -37,8 +38,9 @@ import java.net.URI;
  *
  * This is the main entry point into the HQ Api.
  */
-public class HQApi {
+public class HQApi implements Closeable {
 
+    private final HQConnection       _connection;
     private final UserApi            _userApi;
     private final RoleApi            _roleApi;
     private final MetricApi          _metricApi;
@@ -86,13 +88,21 @@ public class HQApi {
     }
 
     public HQApi(HQConnection connection) {
+        this(connection, null);
+    }
+
+    // A view sharing the lookup caches of the given parent API, if any.
+    private HQApi(HQConnection connection, HQApi parent) {
+        _connection       = connection;
         _userApi          = new UserApi(connection);
         _roleApi          = new RoleApi(connection);
         _groupApi         = new GroupApi(connection);
-        _metricApi        = new MetricApi(connection);
+        _metricApi        = new MetricApi(connection,
+                                          parent == null ? null : parent._metricApi);
         _escalationApi    = new EscalationApi(connection);
         _autodiscoveryApi = new AutodiscoveryApi(connection);
-        _resourceApi      = new ResourceApi(connection);
+        _resourceApi      = new ResourceApi(connection,
+                                              parent == null ? null : parent._resourceApi);
         _agentApi         = new AgentApi(connection);
         _alertDefinitionApi = new AlertDefinitionApi(connection);
         _maintenanceApi   = new MaintenanceApi(connection);
@@ -258,4 +268,58 @@ public class HQApi {
     public ApplicationApi getApplicationApi() {
         return _applApi;
     }
+
+    HQConnection getConnection() {
+        return _connection;
+    }
+
+    /**
+     * Get a view of this API that applies different timeouts to every
+     * operation, for example to make slow operations fail fast.  The view
+     * shares the connection pool and the ResourceApi and MetricApi caches
+     * of this API, and closing it has no effect.
+     * <br><br>
+     * <pre>
+     * api.withTimeouts(5000, 30000, 60000).getResourceApi()
+     *    .getPlatformResources(true, true);
+     * </pre>
+     *
+     * @param connectionTimeout The connection timeout, in milliseconds, or 0
+     * for no timeout.
+     * @param socketTimeout The socket read timeout, in milliseconds, or 0 for
+     * no timeout.
+     * @param requestTimeout The maximum time an operation may take including
+     * retries, in milliseconds, or 0 for no limit.
+     * @return An HQApi using the given timeouts.
+     */
+    public HQApi withTimeouts(int connectionTimeout, int socketTimeout,
+                              long requestTimeout) {
+        return new HQApi(_connection.withTimeouts(connectionTimeout,
+                                                  socketTimeout,
+                                                  requestTimeout), this);
+    }
+
+    /**
+     * Get a view of this API that limits the time each operation may take,
+     * keeping the connection and socket timeouts of this API.
+     *
+     * @param requestTimeout The maximum time an operation may take including
+     * retries, in milliseconds.
+     * @return An HQApi using the given request timeout.
+     *
+     * @see #withTimeouts(int, int, long)
+     */
+    public HQApi withRequestTimeout(long requestTimeout) {
+        return withTimeouts(_connection.getConnectionTimeout(),
+                            _connection.getSocketTimeout(), requestTimeout);
+    }
+
+    /**
+     * Release the pooled HTTP connections held by this API.  Clients that
+     * create many HQApi instances, or run for a long time, should close the
+     * API once it is no longer needed.
+     */
+    public void close() {
+        _connection.close();
+    }
 }
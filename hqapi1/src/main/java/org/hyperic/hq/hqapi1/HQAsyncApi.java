@@ -0,0 +1,279 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.AlertsResponse;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceResponse;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Convenience executor for running Hyperic HQ API operations in the
+ * background.
+ * <br><br>
+ * This is not non-blocking I/O.  Operations are queued and run on a
+ * bounded pool of threads, each making a regular blocking call on the
+ * underlying {@link HQApi} and occupying its thread until the response has
+ * been read.  At most <code>maxConcurrentRequests</code> operations run at
+ * any time, regardless of how many are submitted.  Each operation returns a
+ * {@link Future} and may optionally notify an {@link ApiCallback} on
+ * completion.
+ * <br><br>
+ * Requests are also limited by the connection pool of the HQApi, which is
+ * not changed.  Running more operations at once than
+ * {@link HQConnection#getMaxConnectionsPerRoute()} allows only makes the
+ * extra threads wait for a pooled connection.
+ * <br><br>
+ * Any operation of the synchronous API can be run asynchronously through
+ * {@link #submit(java.util.concurrent.Callable)}.  The most commonly fanned
+ * out operations have typed shortcuts.
+ */
+public class HQAsyncApi implements Closeable {
+
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 10;
+
+    private final HQApi _api;
+    private final ThreadPoolExecutor _executor;
+
+    /**
+     * @param api The HQApi to issue requests through.  At most 10 operations,
+     * and no more than the connections per route of its connection pool,
+     * run at once.
+     */
+    public HQAsyncApi(HQApi api) {
+        this(api, Math.min(DEFAULT_MAX_CONCURRENT_REQUESTS,
+                           api.getConnection().getMaxConnectionsPerRoute()));
+    }
+
+    /**
+     * @param api The HQApi to issue requests through.
+     * @param maxConcurrentRequests The maximum number of operations running
+     * at any one time, and the number of threads used to run them.
+     */
+    public HQAsyncApi(HQApi api, int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be > 0");
+        }
+        _api = api;
+
+        _executor = new ThreadPoolExecutor(maxConcurrentRequests,
+                                           maxConcurrentRequests,
+                                           60, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<Runnable>(),
+                                           new AsyncThreadFactory());
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The synchronous API operations are executed against.
+     */
+    public HQApi getApi() {
+        return _api;
+    }
+
+    /**
+     * Submit an operation for asynchronous execution.
+     *
+     * @param operation The operation to run, typically a call on one of the
+     * APIs returned by {@link #getApi()}.
+     * @return A Future for the response of the operation.
+     */
+    public <T> Future<T> submit(Callable<T> operation) {
+        return submit(operation, null);
+    }
+
+    /**
+     * Submit an operation for asynchronous execution.
+     *
+     * @param operation The operation to run, typically a call on one of the
+     * APIs returned by {@link #getApi()}.
+     * @param callback The callback to notify once the operation finishes, or
+     * null.
+     * @return A Future for the response of the operation.
+     */
+    public <T> Future<T> submit(Callable<T> operation, ApiCallback<T> callback) {
+        CallbackFuture<T> future = new CallbackFuture<T>(operation, callback);
+        _executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Asynchronous version of {@link ResourceApi#getResource(int, boolean, boolean)}.
+     */
+    public Future<ResourceResponse> getResource(final int id, final boolean verbose,
+                                                final boolean children,
+                                                ApiCallback<ResourceResponse> callback) {
+        return submit(new Callable<ResourceResponse>() {
+            public ResourceResponse call() throws Exception {
+                return _api.getResourceApi().getResource(id, verbose, children);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of {@link MetricApi#getMetrics(org.hyperic.hq.hqapi1.types.Resource, boolean)}.
+     */
+    public Future<MetricsResponse> getMetrics(final Resource resource, final boolean enabled,
+                                              ApiCallback<MetricsResponse> callback) {
+        return submit(new Callable<MetricsResponse>() {
+            public MetricsResponse call() throws Exception {
+                return _api.getMetricApi().getMetrics(resource, enabled);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of {@link MetricDataApi#getData(org.hyperic.hq.hqapi1.types.Metric, long, long)}.
+     */
+    public Future<MetricDataResponse> getData(final Metric metric, final long start,
+                                              final long end,
+                                              ApiCallback<MetricDataResponse> callback) {
+        return submit(new Callable<MetricDataResponse>() {
+            public MetricDataResponse call() throws Exception {
+                return _api.getMetricDataApi().getData(metric, start, end);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of {@link MetricDataApi#getData(java.util.List, long, long)}.
+     */
+    public Future<MetricsDataResponse> getData(final List<Metric> metrics, final long start,
+                                               final long end,
+                                               ApiCallback<MetricsDataResponse> callback) {
+        return submit(new Callable<MetricsDataResponse>() {
+            public MetricsDataResponse call() throws Exception {
+                return _api.getMetricDataApi().getData(metrics, start, end);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link AlertApi#findAlerts(org.hyperic.hq.hqapi1.types.Resource, long, long, int, int, Boolean, Boolean)}.
+     */
+    public Future<AlertsResponse> findAlerts(final Resource r, final long begin,
+                                             final long end, final int count,
+                                             final int severity,
+                                             final Boolean inEscalation,
+                                             final Boolean notFixed,
+                                             ApiCallback<AlertsResponse> callback) {
+        return submit(new Callable<AlertsResponse>() {
+            public AlertsResponse call() throws Exception {
+                return _api.getAlertApi().findAlerts(r, begin, end, count, severity,
+                                                     inEscalation, notFixed);
+            }
+        }, callback);
+    }
+
+    /**
+     * @return The number of operations waiting to be executed.
+     */
+    public int getQueuedOperations() {
+        return _executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of operations currently executing.
+     */
+    public int getActiveOperations() {
+        return _executor.getActiveCount();
+    }
+
+    /**
+     * Stop accepting new operations.  Operations that have already been
+     * submitted are still executed.  The underlying {@link HQApi} is not
+     * closed.
+     */
+    public void close() {
+        _executor.shutdown();
+    }
+
+    /**
+     * Wait for submitted operations to finish after {@link #close()}.
+     *
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return true if all operations finished, false if the timeout elapsed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return _executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static class CallbackFuture<T> extends FutureTask<T> {
+        private final ApiCallback<T> _callback;
+
+        CallbackFuture(Callable<T> operation, ApiCallback<T> callback) {
+            super(operation);
+            _callback = callback;
+        }
+
+        protected void done() {
+            if (_callback == null || isCancelled()) {
+                return;
+            }
+            try {
+                _callback.completed(get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                _callback.failed(cause instanceof Exception ?
+                                 (Exception)cause : e);
+            } catch (InterruptedException e) {
+                _callback.failed(e);
+            }
+        }
+    }
+
+    private static class AsyncThreadFactory implements ThreadFactory {
+        private static final AtomicInteger _poolNumber = new AtomicInteger(1);
+        private final AtomicInteger _threadNumber = new AtomicInteger(1);
+        private final String _prefix = "HQAsyncApi-" + _poolNumber.getAndIncrement() + "-";
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, _prefix + _threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -18,10 +18,14 @@
 package org.hyperic.hq.hqapi1;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
@@ -38,6 +42,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
@@ -45,6 +55,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -53,8 +64,12 @@ import javax.xml.bind.JAXBException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
@@ -67,10 +82,16 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.mime.FormBodyPart;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntity;
@@ -80,8 +101,13 @@ import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.hyperic.hq.hqapi1.types.Response;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
 import org.hyperic.hq.hqapi1.types.ServiceError;
 import org.springframework.util.StringUtils;
 
@@ -91,7 +117,7 @@ import org.jasypt.properties.PropertyValueEncryptionUtils;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
 import org.jasypt.properties.PropertyValueEncryptionUtils;
 
-public class HQConnection implements Connection {
+public class HQConnection implements Connection, Closeable {
 
     static final String OPT_HOST = "host";
     static final String OPT_PORT = "port";
@@ -100,15 +126,76 @@ public class HQConnection implements Connection {
     static final String OPT_ENCRYPTEDPASSWORD = "encryptedPassword";
     static final String OPT_ENCRYPTIONKEY = "encryptionKey";
     static final String OPT_SECURE = "secure";
+    static final String OPT_MAXCONNECTIONS = "maxConnections";
+    static final String OPT_MAXCONNECTIONSPERROUTE = "maxConnectionsPerRoute";
+    static final String OPT_IDLECONNECTIONTIMEOUT = "idleConnectionTimeout";
+    static final String OPT_COMPRESSION = "compression";
+    static final String OPT_MAXRETRIES = "maxRetries";
+    static final String OPT_CONNECTIONTIMEOUT = "connectionTimeout";
+    static final String OPT_SOCKETTIMEOUT = "socketTimeout";
+    static final String OPT_REQUESTTIMEOUT = "requestTimeout";
+    static final String OPT_CIRCUITBREAKER = "circuitBreaker";
+    static final String OPT_CONCURRENCYLIMITER = "concurrencyLimiter";
+    static final String OPT_RESPONSECACHESIZE = "responseCacheSize";
+    static final String OPT_COALESCEREQUESTS = "coalesceRequests";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    private static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 30000;
+    private static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 600000;
+    // Cached responses are downloaded again at least this often
+    private static final long RESPONSE_CACHE_TTL = 24 * 60 * 60 * 1000L;
+
+    // How often to check the keystore for changes, in milliseconds
+    private static final long SSL_RELOAD_CHECK_INTERVAL = 60000;
+    private static final int SSL_SESSION_CACHE_SIZE = 100;
+    // SSL session lifetime, in seconds
+    private static final int SSL_SESSION_TIMEOUT = 3600;
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
 
     private static Log _log = LogFactory.getLog(HQConnection.class);
 
+    // Shared by all connections to abort requests that pass their deadline
+    private static ScheduledExecutorService _deadlineTimer;
+
     private String _host;
     private int _port;
     private boolean _isSecure;
     private String _user;
     private String _password;
 
+    private int _maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int _maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private long _idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+    private boolean _compression = true;
+    private volatile RetryPolicy _retryPolicy = new RetryPolicy();
+    private int _connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+    private int _socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    private long _requestTimeout = 0;
+    private volatile CircuitBreaker _circuitBreaker;
+    private volatile ConcurrencyLimiter _concurrencyLimiter;
+    private volatile LookupCache<String,CachedResponse> _responseCache;
+    private final AtomicLong _notModifiedCount = new AtomicLong();
+    private volatile SingleFlight _singleFlight;
+
+    // The connection owning the connection pool.  Connections created
+    // through withTimeouts() share the pool of the connection they were
+    // created from.
+    private HQConnection _root = this;
+
+    private final Object _clientLock = new Object();
+    private volatile DefaultHttpClient _client;
+    private volatile AuthCache _authCache;
+    private IdleConnectionEvictor _idleConnectionEvictor;
+
+    private volatile SSLSocketFactory _sslSocketFactory;
+    private String _sslKeyStorePath;
+    private String _sslKeyStorePassword;
+    private long _sslKeyStoreLastModified;
+    private volatile long _sslLastChecked;
+
     public HQConnection(java.net.URI uri, String user, String password) {
     	this(uri.getHost(),
     		 uri.getPort(),
@@ -130,6 +217,17 @@ public class HQConnection implements Connection {
         _password = password;
     }
 
+    private HQConnection(HQConnection parent, int connectionTimeout,
+                         int socketTimeout, long requestTimeout) {
+        this(parent._host, parent._port, parent._isSecure, parent._user,
+             parent._password);
+        _root = parent._root;
+        _compression = parent._compression;
+        _connectionTimeout = connectionTimeout;
+        _socketTimeout = socketTimeout;
+        _requestTimeout = requestTimeout;
+    }
+
     public HQConnection(File clientProperties) 
         throws FileNotFoundException, IOException {
         Properties props = new Properties();;
@@ -161,6 +259,28 @@ public class HQConnection implements Connection {
         _isSecure   = Boolean.valueOf(props.getProperty(OPT_SECURE, "false"));
         _user       = props.getProperty(OPT_USER, "hqadmin");
         _password   = props.getProperty(OPT_PASS, "");
+        _maxConnections = Integer.parseInt(props.getProperty(OPT_MAXCONNECTIONS,
+                                                             Integer.toString(DEFAULT_MAX_CONNECTIONS)));
+        _maxConnectionsPerRoute = Integer.parseInt(props.getProperty(OPT_MAXCONNECTIONSPERROUTE,
+                                                                     Integer.toString(DEFAULT_MAX_CONNECTIONS_PER_ROUTE)));
+        _idleConnectionTimeout = Long.parseLong(props.getProperty(OPT_IDLECONNECTIONTIMEOUT,
+                                                                  Long.toString(DEFAULT_IDLE_CONNECTION_TIMEOUT)));
+        _compression = Boolean.valueOf(props.getProperty(OPT_COMPRESSION, "true"));
+        _retryPolicy.setMaxRetries(Integer.parseInt(props.getProperty(OPT_MAXRETRIES,
+                                                                      Integer.toString(RetryPolicy.DEFAULT_MAX_RETRIES))));
+        _connectionTimeout = Integer.parseInt(props.getProperty(OPT_CONNECTIONTIMEOUT,
+                                                                Integer.toString(DEFAULT_CONNECTION_TIMEOUT)));
+        _socketTimeout = Integer.parseInt(props.getProperty(OPT_SOCKETTIMEOUT,
+                                                            Integer.toString(DEFAULT_SOCKET_TIMEOUT)));
+        _requestTimeout = Long.parseLong(props.getProperty(OPT_REQUESTTIMEOUT, "0"));
+        if (Boolean.valueOf(props.getProperty(OPT_CIRCUITBREAKER, "false"))) {
+            _circuitBreaker = new CircuitBreaker();
+        }
+        if (Boolean.valueOf(props.getProperty(OPT_CONCURRENCYLIMITER, "false"))) {
+            _concurrencyLimiter = new ConcurrencyLimiter(_maxConnectionsPerRoute);
+        }
+        setResponseCacheSize(Integer.parseInt(props.getProperty(OPT_RESPONSECACHESIZE, "0")));
+        setCoalesceRequests(Boolean.valueOf(props.getProperty(OPT_COALESCEREQUESTS, "false")));
         if (_password.isEmpty()) {
             String encryptionKey = props.getProperty(OPT_ENCRYPTIONKEY, "");
             String encryptedPassword = props.getProperty(OPT_ENCRYPTEDPASSWORD, "");
@@ -202,6 +322,36 @@ public class HQConnection implements Connection {
         return runMethod(new HttpGet(), buildUri(path, params), responseHandler);
     }
 
+    /**
+     * Issue a GET against the API.
+     *
+     * @param idempotent true if the request is safe to repeat, allowing it
+     * to be retried after it may have reached the server.
+     * @see RetryPolicy#isRetryable(IOException, boolean)
+     */
+    <T> T doGet(String path, Map<String, String[]> params,
+                ResponseHandler<T> responseHandler, boolean idempotent)
+        throws IOException
+    {
+        return runMethod(new HttpGet(), buildUri(path, params), responseHandler,
+                         false, idempotent);
+    }
+
+    /**
+     * Issue a GET that is revalidated against the response cache.  If the
+     * response cache is enabled and holds a response for the same request,
+     * its ETag is sent in an If-None-Match header and the cached response is
+     * returned if the HQ server reports it as not modified.  Otherwise this
+     * is the same as {@link #doGet(String, java.util.Map, ResponseHandler, boolean)}.
+     */
+    <T> T doConditionalGet(String path, Map<String, String[]> params,
+                           ResponseHandler<T> responseHandler, boolean idempotent)
+        throws IOException
+    {
+        return runMethod(new HttpGet(), buildUri(path, params), responseHandler,
+                         true, idempotent);
+    }
+
     private String buildUri(String path, Map<String, String[]> params) throws IOException {
         StringBuffer uri = new StringBuffer(path);
         if (uri.charAt(uri.length() - 1) != '?') {
@@ -296,6 +446,20 @@ public class HQConnection implements Connection {
      */
     public <T> T doPost(String path, Object o, ResponseHandler<T> responseHandler)
     throws IOException {
+        return doPost(path, o, responseHandler, false);
+    }
+
+    /**
+     * Issue a POST against the API.
+     *
+     * @param idempotent true if the request is safe to repeat, such as a
+     * sync, allowing it to be retried after it may have reached the server.
+     * @see RetryPolicy#isRetryable(IOException, boolean)
+     */
+    <T> T doPost(String path, Object o, ResponseHandler<T> responseHandler,
+                 boolean idempotent)
+        throws IOException
+    {
         HttpPost post = new HttpPost();
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
 
@@ -319,11 +483,48 @@ public class HQConnection implements Connection {
         multipartEntity.addPart("postdata", new StringBody(bos.toString("UTF-8"), Charset.forName("UTF-8")));
         post.setEntity(multipartEntity);
 
+        return runMethod(post, path, responseHandler, false, idempotent);
+    }
+
+    /**
+     * Issue a POST with an object serialized as the XML body of the request,
+     * rather than as a multipart form field.  The XML is written to the
+     * connection as it is serialized, and the HQ server can read it the
+     * same way instead of buffering the whole upload.
+     *
+     * @see #doPost(String, Object, ResponseHandler)
+     */
+    <T> T doPostXml(String path, final Object o, ResponseHandler<T> responseHandler)
+        throws IOException
+    {
+        HttpPost post = new HttpPost();
+        EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+            public void writeTo(OutputStream os) throws IOException {
+                try {
+                    XmlUtil.serialize(o, os, Boolean.FALSE);
+                } catch (JAXBException e) {
+                    IOException ioe = new IOException("Unable to serialize request");
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+        });
+        entity.setContentType("application/xml; charset=UTF-8");
+        post.setEntity(entity);
+
         return runMethod(post, path, responseHandler);
     }
 
     private <T> T runMethod(HttpRequestBase method, String uri, ResponseHandler<T> responseHandler)
             throws IOException
+    {
+        return runMethod(method, uri, responseHandler, false, false);
+    }
+
+    private <T> T runMethod(HttpRequestBase method, String uri,
+                            ResponseHandler<T> responseHandler,
+                            boolean conditional, boolean idempotent)
+            throws IOException
     {
         String protocol = _isSecure ? "https" : "http";
         ServiceError error;
@@ -337,13 +538,6 @@ public class HQConnection implements Connection {
 
         _log.debug("Setting URI: " + url.toString());
 
-        DefaultHttpClient client = new DefaultHttpClient();
-
-        if (_isSecure) {
-            // To allow for self signed certificates
-            configureSSL(client);
-        }
-
         // Validate user & password inputs
         if (_user == null || _user.length() == 0) {
             error = new ServiceError();
@@ -361,6 +555,299 @@ public class HQConnection implements Connection {
             return responseHandler.getErrorResponse(error);
         }
 
+        HQConnection root = _root;
+        DefaultHttpClient client = root.getClient();
+
+        if (_isSecure) {
+            root.checkSSLReload(client);
+        }
+
+        RetryPolicy retryPolicy = root._retryPolicy;
+        retryPolicy.requestStarted();
+
+        LookupCache<String,CachedResponse> responseCache =
+            conditional ? root._responseCache : null;
+        CachedResponse cached = null;
+        if (responseCache != null) {
+            cached = responseCache.get(uri);
+            if (cached != null) {
+                method.setHeader("If-None-Match", cached.etag);
+            }
+        }
+
+        long deadline = _requestTimeout > 0 ?
+            System.currentTimeMillis() + _requestTimeout : 0;
+
+        HttpRequestBase request = method;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                // An aborted request cannot be executed again
+                request = copyRequest(method);
+            }
+
+            // The auth cache is shared, but the context holding it is per request
+            BasicHttpContext localContext = new BasicHttpContext();
+            localContext.setAttribute(ClientContext.AUTH_CACHE, root._authCache);
+
+            request.getParams().setParameter(ClientPNames.HANDLE_AUTHENTICATION, true);
+
+            request.getParams().setParameter(AuthPNames.CREDENTIAL_CHARSET, "UTF-8");
+
+            int connectionTimeout = _connectionTimeout;
+            int socketTimeout = _socketTimeout;
+            long remaining = 0;
+            if (deadline > 0) {
+                remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw deadlineExceeded(uri);
+                }
+                connectionTimeout = (int)limitTimeout(connectionTimeout, remaining);
+                socketTimeout = (int)limitTimeout(socketTimeout, remaining);
+            }
+            HttpConnectionParams.setConnectionTimeout(request.getParams(), connectionTimeout);
+            HttpConnectionParams.setSoTimeout(request.getParams(), socketTimeout);
+            // Also bounds the wait for a connection from the pool
+            request.getParams().setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT,
+                                                 connectionTimeout);
+
+            CircuitBreaker breaker = root._circuitBreaker;
+            if (breaker != null && !breaker.allowRequest()) {
+                return responseHandler.getErrorResponse(
+                    unavailable("Circuit breaker open for " + _host + ":" + _port));
+            }
+            ConcurrencyLimiter limiter = root._concurrencyLimiter;
+            if (limiter != null && !acquire(limiter, connectionTimeout)) {
+                if (breaker != null) {
+                    breaker.cancel();
+                }
+                return responseHandler.getErrorResponse(
+                    unavailable("Too many concurrent requests to " + _host + ":" + _port));
+            }
+
+            ScheduledFuture<?> abort = null;
+            if (deadline > 0) {
+                abort = scheduleAbort(request, remaining);
+            }
+
+            // Failures while the handler reads the response are not retried,
+            // the handler may already have passed on part of it.
+            boolean handling = false;
+            long started = System.currentTimeMillis();
+            long latency = -1;
+            boolean failed = true;
+            try {
+                HttpResponse response = client.execute(request, localContext);
+                int statusCode = response.getStatusLine().getStatusCode();
+                latency = System.currentTimeMillis() - started;
+                failed = statusCode >= 500;
+                if (retryPolicy.isRetryable(statusCode, idempotent) &&
+                    canRetry(retryPolicy, request, attempt)) {
+                    EntityUtils.consume(response.getEntity());
+                    _log.debug("Retrying " + uri + " after status " + statusCode);
+                    backoff(retryPolicy, attempt);
+                    continue;
+                }
+                if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                    EntityUtils.consume(response.getEntity());
+                    root._notModifiedCount.incrementAndGet();
+                    @SuppressWarnings("unchecked")
+                    T result = (T)cached.response;
+                    return result;
+                }
+                handling = true;
+                try {
+                    T result = responseHandler.handleResponse(response);
+                    if (responseCache != null) {
+                        cacheResponse(responseCache, uri, response, result);
+                    }
+                    return result;
+                } finally {
+                    // Consume anything the handler left unread so the
+                    // connection can be reused.
+                    EntityUtils.consume(response.getEntity());
+                }
+            } catch (UnknownHostException e ) {
+                _log.debug(e);
+                error = new ServiceError();
+                error.setErrorCode("UnknownHost");
+                error.setReasonText("Unknown host specified in connection properties: " + _host);
+                return responseHandler.getErrorResponse(error);
+            } catch (IOException e) {
+                // Don't hand a half read connection back to the pool
+                request.abort();
+                if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+                    throw deadlineExceeded(uri);
+                }
+                if (!handling && retryPolicy.isRetryable(e, idempotent) &&
+                    canRetry(retryPolicy, request, attempt)) {
+                    _log.debug("Retrying " + uri + " after " + e);
+                    backoff(retryPolicy, attempt);
+                    continue;
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                request.abort();
+                throw e;
+            } finally {
+                if (abort != null) {
+                    abort.cancel(false);
+                }
+                if (limiter != null) {
+                    limiter.release(url.getPath(), latency, failed);
+                }
+                if (breaker != null) {
+                    breaker.record(latency, failed);
+                }
+            }
+        }
+    }
+
+    private static void cacheResponse(LookupCache<String,CachedResponse> cache,
+                                      String uri, HttpResponse response,
+                                      Object result) {
+        Header etag = response.getFirstHeader("ETag");
+        if (etag == null || response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+            cache.invalidate(uri);
+        } else if (result instanceof Response &&
+                   ResponseStatus.SUCCESS.equals(((Response)result).getStatus())) {
+            cache.put(uri, new CachedResponse(etag.getValue(), result));
+        } else {
+            cache.invalidate(uri);
+        }
+    }
+
+    private static boolean acquire(ConcurrencyLimiter limiter, long timeout)
+        throws InterruptedIOException
+    {
+        try {
+            return limiter.acquire(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+    }
+
+    private static ServiceError unavailable(String reason) {
+        ServiceError error = new ServiceError();
+        error.setErrorCode(ErrorCode.SERVICE_UNAVAILABLE.getErrorCode());
+        error.setReasonText(reason);
+        return error;
+    }
+
+    private static long limitTimeout(long timeout, long remaining) {
+        // A timeout of 0 means no timeout
+        return timeout == 0 ? remaining : Math.min(timeout, remaining);
+    }
+
+    private SocketTimeoutException deadlineExceeded(String uri) {
+        return new SocketTimeoutException("Request to " + uri + " did not complete within " +
+                                          _requestTimeout + " ms");
+    }
+
+    /**
+     * Abort the given request once its deadline has passed.
+     */
+    private static ScheduledFuture<?> scheduleAbort(final HttpRequestBase request,
+                                                    long delay) {
+        ScheduledExecutorService timer;
+        synchronized (HQConnection.class) {
+            if (_deadlineTimer == null) {
+                _deadlineTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "HQApi-RequestDeadline");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            timer = _deadlineTimer;
+        }
+        return timer.schedule(new Runnable() {
+            public void run() {
+                request.abort();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean canRetry(RetryPolicy retryPolicy,
+                                    HttpRequestBase request, int attempt) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return false;
+            }
+        }
+        return retryPolicy.acquireRetry(attempt);
+    }
+
+    private static void backoff(RetryPolicy retryPolicy, int attempt)
+        throws InterruptedIOException
+    {
+        try {
+            Thread.sleep(retryPolicy.getBackoff(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Create a fresh copy of a request for a retry.
+     */
+    private static HttpRequestBase copyRequest(HttpRequestBase method) {
+        HttpRequestBase copy;
+        if (method instanceof HttpPost) {
+            HttpPost post = new HttpPost();
+            post.setEntity(((HttpPost)method).getEntity());
+            copy = post;
+        } else {
+            copy = new HttpGet();
+        }
+        copy.setURI(method.getURI());
+        copy.setHeaders(method.getAllHeaders());
+        return copy;
+    }
+
+    /**
+     * Get the shared HttpClient for this connection, creating it on first
+     * use.  The client is backed by a thread safe pooling connection
+     * manager so connections to the HQ server are kept alive and reused
+     * across calls.
+     */
+    private DefaultHttpClient getClient() throws IOException {
+        DefaultHttpClient client = _client;
+        if (client == null) {
+            synchronized (_clientLock) {
+                client = _client;
+                if (client == null) {
+                    client = createClient();
+                    _client = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private DefaultHttpClient createClient() throws IOException {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+
+        ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager(schemeRegistry);
+        connManager.setMaxTotal(_maxConnections);
+        connManager.setDefaultMaxPerRoute(_maxConnectionsPerRoute);
+
+        DefaultHttpClient client = new DefaultHttpClient(connManager);
+
+        if (_isSecure) {
+            // To allow for self signed certificates
+            try {
+                configureSSL(client);
+            } catch (IOException e) {
+                connManager.shutdown();
+                throw e;
+            }
+        }
+
         // Set Basic auth creds
         UsernamePasswordCredentials defaultcreds = new UsernamePasswordCredentials(_user, _password);
 
@@ -369,31 +856,311 @@ public class HQConnection implements Connection {
         // Preemptive authentication
         AuthCache authCache = new BasicAuthCache();
         BasicScheme basicAuth = new BasicScheme();
-        HttpHost host = new HttpHost(_host, _port, protocol);
+        HttpHost host = new HttpHost(_host, _port, _isSecure ? "https" : "http");
 
         authCache.put(host, basicAuth);
+        _authCache = authCache;
 
-        BasicHttpContext localContext = new BasicHttpContext();
-        localContext.setAttribute(ClientContext.AUTH_CACHE, authCache);        
-
-        method.getParams().setParameter(ClientPNames.HANDLE_AUTHENTICATION, true);
-        
-        method.getParams().setParameter(AuthPNames.CREDENTIAL_CHARSET, "UTF-8");
+        // Ask for gzip/deflate responses and transparently inflate them
+        if (_compression) {
+            client.addRequestInterceptor(new RequestAcceptEncoding());
+            client.addResponseInterceptor(new ResponseContentEncoding());
+        }
 
-        // Disable re-tries
+        // Retries are handled by the RetryPolicy in runMethod
         client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, true));
 
-        try {
-            HttpResponse response = client.execute(method, localContext);
-            return responseHandler.handleResponse(response);        
-        } catch (UnknownHostException e ) {
-            _log.debug(e);
-            error = new ServiceError();
-            error.setErrorCode("UnknownHost");
-            error.setReasonText("Unknown host specified in connection properties: " + _host);
-            return responseHandler.getErrorResponse(error);
+        _idleConnectionEvictor = new IdleConnectionEvictor(connManager, _idleConnectionTimeout);
+        _idleConnectionEvictor.start();
+
+        return client;
+    }
+
+    /**
+     * Release the pooled connections held by this connection.  The
+     * connection may still be used after it has been closed, in which case
+     * a new connection pool will be created on the next request.
+     */
+    public void close() {
+        if (_root != this) {
+            // The pool belongs to the connection this one was derived from
+            return;
+        }
+        synchronized (_clientLock) {
+            if (_idleConnectionEvictor != null) {
+                _idleConnectionEvictor.shutdown();
+                _idleConnectionEvictor = null;
+            }
+            if (_client != null) {
+                _client.getConnectionManager().shutdown();
+                _client = null;
+            }
+        }
+    }
+
+    /**
+     * @return The maximum number of pooled connections.
+     */
+    public int getMaxConnections() {
+        if (_root != this) {
+            return _root.getMaxConnections();
+        }
+        return _maxConnections;
+    }
+
+    /**
+     * @param maxConnections The maximum number of pooled connections.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (_root != this) {
+            _root.setMaxConnections(maxConnections);
+            return;
+        }
+        _maxConnections = maxConnections;
+        DefaultHttpClient client = _client;
+        if (client != null) {
+            ((ThreadSafeClientConnManager)client.getConnectionManager()).setMaxTotal(maxConnections);
+        }
+    }
+
+    /**
+     * @return The maximum number of pooled connections to a single HQ server.
+     */
+    public int getMaxConnectionsPerRoute() {
+        if (_root != this) {
+            return _root.getMaxConnectionsPerRoute();
         }
+        return _maxConnectionsPerRoute;
+    }
+
+    /**
+     * @param maxConnectionsPerRoute The maximum number of pooled connections
+     * to a single HQ server.
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if (_root != this) {
+            _root.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+            return;
+        }
+        _maxConnectionsPerRoute = maxConnectionsPerRoute;
+        DefaultHttpClient client = _client;
+        if (client != null) {
+            ((ThreadSafeClientConnManager)client.getConnectionManager()).setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        }
+    }
 
+    /**
+     * @param idleConnectionTimeout The time in milliseconds a pooled
+     * connection may stay idle before it is closed.  Takes effect the next
+     * time the connection pool is created.
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        _idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    /**
+     * @return true if compressed responses are requested from the HQ server.
+     */
+    public boolean isCompression() {
+        return _compression;
+    }
+
+    /**
+     * @param compression Whether to request gzip or deflate compressed
+     * responses from the HQ server.  Takes effect the next time the
+     * connection pool is created.
+     */
+    public void setCompression(boolean compression) {
+        _compression = compression;
+    }
+
+    /**
+     * @return The {@link RetryPolicy} applied to requests, which also keeps
+     * count of the retries made.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return _root._retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy The {@link RetryPolicy} to apply to requests.  Use
+     * {@link RetryPolicy#none()} to disable retries.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy cannot be null");
+        }
+        _root._retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return The {@link CircuitBreaker} guarding requests, or null if
+     * disabled.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return _root._circuitBreaker;
+    }
+
+    /**
+     * @param circuitBreaker The {@link CircuitBreaker} to guard requests
+     * with, or null to disable it.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        _root._circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return The {@link ConcurrencyLimiter} applied to requests, or null if
+     * disabled.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return _root._concurrencyLimiter;
+    }
+
+    /**
+     * @param concurrencyLimiter The {@link ConcurrencyLimiter} to apply to
+     * requests, or null to disable it.
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        _root._concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * @return The maximum number of responses kept for revalidation with
+     * If-None-Match, or 0 if the response cache is disabled.
+     */
+    public int getResponseCacheSize() {
+        LookupCache<String,CachedResponse> cache = _root._responseCache;
+        return cache == null ? 0 : cache.getMaxEntries();
+    }
+
+    /**
+     * Enable caching of the responses of listings that rarely change, such
+     * as {@link UserApi#getUsers()}.  Cached responses are revalidated with
+     * the HQ server on every call and returned as is, without parsing, if
+     * not modified.  The same response object is then returned to every
+     * caller, so it must not be modified.
+     *
+     * @param size The maximum number of responses to cache, or 0 to disable
+     * the response cache.
+     */
+    public void setResponseCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Response cache size must be >= 0");
+        }
+        _root._responseCache = size == 0 ? null :
+            new LookupCache<String,CachedResponse>(RESPONSE_CACHE_TTL, size);
+    }
+
+    /**
+     * @return The number of requests answered from the response cache after
+     * the HQ server reported them as not modified.
+     */
+    public long getNotModifiedCount() {
+        return _root._notModifiedCount.get();
+    }
+
+    /**
+     * @return true if identical concurrent GETs are merged into one request.
+     */
+    public boolean isCoalesceRequests() {
+        return _root._singleFlight != null;
+    }
+
+    /**
+     * Merge identical GETs made concurrently by several threads, same action
+     * and parameters, into a single request to the HQ server.  Every caller
+     * then gets the same response object, so it must not be modified.
+     * Only the read-only resource, metric and listing lookups are merged,
+     * and only between callers with the same timeouts.
+     *
+     * @param coalesceRequests true to merge identical concurrent GETs.
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        if (coalesceRequests != isCoalesceRequests()) {
+            _root._singleFlight = coalesceRequests ? new SingleFlight() : null;
+        }
+    }
+
+    /**
+     * @return The number of GETs answered by an identical request already in
+     * flight.
+     */
+    public long getCoalescedCount() {
+        SingleFlight singleFlight = _root._singleFlight;
+        return singleFlight == null ? 0 : singleFlight.getCoalescedCount();
+    }
+
+    SingleFlight getSingleFlight() {
+        return _root._singleFlight;
+    }
+
+    /**
+     * @return The timeout for establishing a connection to the HQ server, in
+     * milliseconds, or 0 for no timeout.
+     */
+    public int getConnectionTimeout() {
+        return _connectionTimeout;
+    }
+
+    /**
+     * @param connectionTimeout The timeout for establishing a connection to
+     * the HQ server, and for obtaining one from the pool, in milliseconds, or
+     * 0 for no timeout.
+     */
+    public void setConnectionTimeout(int connectionTimeout) {
+        _connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * @return The maximum time to wait for data from the HQ server, in
+     * milliseconds, or 0 for no timeout.
+     */
+    public int getSocketTimeout() {
+        return _socketTimeout;
+    }
+
+    /**
+     * @param socketTimeout The maximum time to wait for data from the HQ
+     * server, in milliseconds, or 0 for no timeout.
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        _socketTimeout = socketTimeout;
+    }
+
+    /**
+     * @return The maximum time a request may take including retries, in
+     * milliseconds, or 0 for no limit.
+     */
+    public long getRequestTimeout() {
+        return _requestTimeout;
+    }
+
+    /**
+     * @param requestTimeout The maximum time a request may take including
+     * retries, in milliseconds, or 0 for no limit.  Requests that run past
+     * it are aborted and fail with a {@link java.net.SocketTimeoutException}.
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        _requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Create a connection that uses different timeouts but shares the
+     * connection pool, retry policy and credentials of this connection.
+     * Closing the returned connection has no effect.
+     *
+     * @param connectionTimeout The connection timeout, in milliseconds.
+     * @param socketTimeout The socket read timeout, in milliseconds.
+     * @param requestTimeout The overall request timeout, in milliseconds.
+     * @return The new connection.
+     *
+     * @see HQApi#withTimeouts(int, int, long)
+     */
+    public HQConnection withTimeouts(int connectionTimeout, int socketTimeout,
+                                     long requestTimeout) {
+        return new HQConnection(this, connectionTimeout, socketTimeout,
+                                requestTimeout);
     }
 
     private KeyStore getKeyStore(String keyStorePath, String keyStorePassword) throws KeyStoreException, IOException {
@@ -466,9 +1233,63 @@ public class HQConnection implements Connection {
         }
     }
     
+    /**
+     * Register the https scheme with the given client, reusing the cached
+     * SSL socket factory.  The factory, and the SSLContext behind it, is
+     * only rebuilt when the configured keystore changes so TLS sessions can
+     * be resumed across requests.
+     */
     private void configureSSL(HttpClient client) throws IOException {
+        SSLSocketFactory socketFactory = getSSLSocketFactory();
+        client.getConnectionManager().getSchemeRegistry().register(new Scheme("https", 443, socketFactory));
+    }
+
+    private synchronized SSLSocketFactory getSSLSocketFactory() throws IOException {
         final String keyStorePath = System.getProperty("javax.net.ssl.keyStore");
         final String keyStorePassword = System.getProperty("javax.net.ssl.keyStorePassword");
+        final long keyStoreLastModified = StringUtils.hasText(keyStorePath) ?
+            new File(keyStorePath).lastModified() : 0;
+
+        if (_sslSocketFactory == null ||
+            !equal(keyStorePath, _sslKeyStorePath) ||
+            !equal(keyStorePassword, _sslKeyStorePassword) ||
+            keyStoreLastModified != _sslKeyStoreLastModified) {
+            _sslSocketFactory = createSSLSocketFactory(keyStorePath, keyStorePassword);
+            _sslKeyStorePath = keyStorePath;
+            _sslKeyStorePassword = keyStorePassword;
+            _sslKeyStoreLastModified = keyStoreLastModified;
+        }
+        _sslLastChecked = System.currentTimeMillis();
+        return _sslSocketFactory;
+    }
+
+    /**
+     * Rebuild the SSL socket factory if the keystore has changed since it
+     * was last loaded.  Checks are throttled so the keystore file is not
+     * examined on every request.
+     */
+    private void checkSSLReload(DefaultHttpClient client) throws IOException {
+        if (System.currentTimeMillis() - _sslLastChecked < SSL_RELOAD_CHECK_INTERVAL) {
+            return;
+        }
+
+        SSLSocketFactory current = _sslSocketFactory;
+        SSLSocketFactory socketFactory = getSSLSocketFactory();
+        if (socketFactory != current) {
+            _log.debug("Keystore changed, reloading SSL configuration");
+            client.getConnectionManager().getSchemeRegistry().register(new Scheme("https", 443, socketFactory));
+            // Pooled connections were established with the old key material
+            client.getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    private SSLSocketFactory createSSLSocketFactory(String keyStorePath, String keyStorePassword)
+        throws IOException
+    {
         final boolean validateSSLCertificates = StringUtils.hasText(keyStorePath) && StringUtils.hasText(keyStorePassword);
 
         X509TrustManager customTrustManager = null;
@@ -508,7 +1329,15 @@ public class HQConnection implements Connection {
 
             SSLContext sslContext = SSLContext.getInstance("TLS");
 
-            sslContext.init(keyManagers, new TrustManager[] { customTrustManager }, new SecureRandom());
+            sslContext.init(keyManagers, new TrustManager[] { customTrustManager }, SECURE_RANDOM);
+
+            // Cache client sessions so repeated connections to the HQ server
+            // use abbreviated handshakes.
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            if (sessionContext != null) {
+                sessionContext.setSessionCacheSize(SSL_SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(SSL_SESSION_TIMEOUT);
+            }
 
             // XXX Should we use ALLOW_ALL_HOSTNAME_VERIFIER (least restrictive) or 
             //     BROWSER_COMPATIBLE_HOSTNAME_VERIFIER (moderate restrictive) or
@@ -545,9 +1374,19 @@ public class HQConnection implements Connection {
                 };
             }
 
-            client.getConnectionManager().getSchemeRegistry().register(new Scheme("https", 443, new SSLSocketFactory(sslContext, hostnameVerifier)));
+            return new SSLSocketFactory(sslContext, hostnameVerifier);
         } catch (Exception e) {
             throw new IOException(e);
         }
     }
+
+    private static class CachedResponse {
+        final String etag;
+        final Object response;
+
+        CachedResponse(String etag, Object response) {
+            this.etag = etag;
+            this.response = response;
+        }
+    }
 }
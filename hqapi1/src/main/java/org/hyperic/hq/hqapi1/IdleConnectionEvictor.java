@@ -0,0 +1,91 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.conn.ClientConnectionManager;
+
+/**
+ * Background thread that periodically closes expired and idle connections
+ * held by a pooling {@link ClientConnectionManager}.  Without it, connections
+ * closed by the HQ server while sitting in the pool would only be detected
+ * when they are next leased.
+ */
+class IdleConnectionEvictor extends Thread {
+
+    private static Log _log = LogFactory.getLog(IdleConnectionEvictor.class);
+
+    private final ClientConnectionManager _connManager;
+    private final long _idleTimeout;
+    private volatile boolean _shutdown = false;
+
+    /**
+     * @param connManager The connection manager to evict connections from.
+     * @param idleTimeout The time in milliseconds a connection may stay idle
+     * in the pool before it is closed.
+     */
+    IdleConnectionEvictor(ClientConnectionManager connManager, long idleTimeout) {
+        super("HQApi-IdleConnectionEvictor");
+        setDaemon(true);
+        _connManager = connManager;
+        _idleTimeout = idleTimeout;
+    }
+
+    public void run() {
+        // Check at least every 5 seconds, or more often for short timeouts
+        long interval = Math.max(Math.min(_idleTimeout, 5000), 100);
+        try {
+            while (!_shutdown) {
+                synchronized (this) {
+                    wait(interval);
+                }
+                _connManager.closeExpiredConnections();
+                _connManager.closeIdleConnections(_idleTimeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            // Terminate
+        } catch (IllegalStateException e) {
+            // Connection manager was shut down underneath us
+            _log.debug("Connection manager shut down, stopping idle connection eviction");
+        }
+    }
+
+    /**
+     * Stop evicting connections.
+     */
+    void shutdown() {
+        _shutdown = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
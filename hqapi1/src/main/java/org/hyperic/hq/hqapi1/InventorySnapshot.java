@@ -0,0 +1,435 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceInfo;
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+import javax.xml.bind.JAXBException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local copy of the platform inventory, including all child resources,
+ * that answers lookups by id, aeid, platform name and fqdn without a round
+ * trip to the HQ server.
+ * <br><br>
+ * The first {@link #refresh()} downloads the complete inventory.  Later
+ * refreshes only download the platforms that were modified since the last
+ * refresh, plus the list of platform ids to drop deleted platforms.  Since
+ * the HQ server does not always mark a platform as modified when one of its
+ * servers or services is deleted or moved, a full refresh is done once the
+ * last one is older than the full refresh interval.
+ * <br><br>
+ * If a snapshot file is given the inventory is loaded from it on creation
+ * and written back after every successful refresh, so a restarted client
+ * only needs an incremental refresh.
+ * <br><br>
+ * Lookups are thread safe and never block.  The returned
+ * {@link org.hyperic.hq.hqapi1.types.Resource}s are shared and must not be
+ * modified.
+ */
+public class InventorySnapshot {
+
+    public static final long DEFAULT_OVERLAP = 10 * 60 * 1000L; // 10 minutes.
+    public static final long DEFAULT_FULL_REFRESH_INTERVAL =
+            24 * 60 * 60 * 1000L; // 1 day.
+
+    private static final int MAGIC = 0x48514953; // 'HQIS'
+    private static final int VERSION = 1;
+
+    private static final String INFO_FQDN = "fqdn";
+
+    private final ResourceApi _api;
+    private final File _file;
+    private final boolean _verbose;
+
+    private long _overlap = DEFAULT_OVERLAP;
+    private long _fullRefreshInterval = DEFAULT_FULL_REFRESH_INTERVAL;
+    private long _lastRefresh = 0;
+    private long _lastFullRefresh = 0;
+
+    private volatile Index _index = new Index(Collections.<Resource>emptyList());
+
+    /**
+     * Create a snapshot that is kept in memory only.
+     *
+     * @param api The {@link ResourceApi} used to refresh the snapshot.
+     * @param verbose Flag to indicate whether
+     * {@link org.hyperic.hq.hqapi1.types.ResourceConfig} and
+     * {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     */
+    public InventorySnapshot(ResourceApi api, boolean verbose) {
+        _api = api;
+        _file = null;
+        _verbose = verbose;
+    }
+
+    /**
+     * Create a snapshot that is persisted to the given file.  If the file
+     * exists the snapshot is loaded from it.  A file written with a
+     * different verbose flag is ignored and replaced by the next refresh.
+     *
+     * @param api The {@link ResourceApi} used to refresh the snapshot.
+     * @param file The file to load the snapshot from and save it to.
+     * @param verbose Flag to indicate whether
+     * {@link org.hyperic.hq.hqapi1.types.ResourceConfig} and
+     * {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     *
+     * @throws IOException If the snapshot file could not be read.
+     */
+    public InventorySnapshot(ResourceApi api, File file, boolean verbose)
+        throws IOException
+    {
+        _api = api;
+        _file = file;
+        _verbose = verbose;
+        if (_file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * @param overlap How far, in milliseconds, an incremental refresh looks
+     * back before the start of the previous refresh.  Covers clock
+     * differences between the client and the HQ server.
+     */
+    public synchronized void setOverlap(long overlap) {
+        if (overlap < 0) {
+            throw new IllegalArgumentException("Overlap must be >= 0");
+        }
+        _overlap = overlap;
+    }
+
+    /**
+     * @param interval The maximum age, in milliseconds, of the last full
+     * refresh before {@link #refresh()} downloads the complete inventory
+     * again.
+     */
+    public synchronized void setFullRefreshInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Full refresh interval must be > 0");
+        }
+        _fullRefreshInterval = interval;
+    }
+
+    /**
+     * Bring the snapshot up to date with the HQ server, downloading only
+     * the platforms modified since the last refresh where possible.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * the snapshot was refreshed.  On failure the snapshot is left
+     * unchanged.
+     *
+     * @throws IOException If a network error occurs while making the
+     * request, or the snapshot file could not be written.
+     */
+    public synchronized StatusResponse refresh() throws IOException {
+        long now = System.currentTimeMillis();
+        if (_lastFullRefresh == 0 || now - _lastFullRefresh >= _fullRefreshInterval) {
+            return fullRefresh();
+        }
+
+        // Ids of all current platforms, to drop deleted platforms
+        final Set<Integer> ids = new HashSet<Integer>();
+        StatusResponse response =
+                _api.getPlatformResources(false, false,
+                                          new ElementHandler<Resource>() {
+                                              public void handleElement(Resource r) {
+                                                  ids.add(r.getId());
+                                              }
+                                          });
+        if (response.getStatus() != ResponseStatus.SUCCESS) {
+            return response;
+        }
+
+        final Map<Integer,Resource> modified = new HashMap<Integer,Resource>();
+        response = _api.getPlatformResources(_verbose, true,
+                                             _lastRefresh - _overlap,
+                                             new ElementHandler<Resource>() {
+                                                 public void handleElement(Resource r) {
+                                                     modified.put(r.getId(), r);
+                                                 }
+                                             });
+        if (response.getStatus() != ResponseStatus.SUCCESS) {
+            return response;
+        }
+
+        Map<Integer,Resource> platforms = new LinkedHashMap<Integer,Resource>();
+        for (Resource r : _index.platforms) {
+            if (ids.contains(r.getId())) {
+                platforms.put(r.getId(), r);
+            }
+        }
+        platforms.putAll(modified);
+
+        update(platforms.values(), now, _lastFullRefresh);
+        return response;
+    }
+
+    /**
+     * Replace the snapshot with the complete inventory of the HQ server.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * the snapshot was refreshed.  On failure the snapshot is left
+     * unchanged.
+     *
+     * @throws IOException If a network error occurs while making the
+     * request, or the snapshot file could not be written.
+     */
+    public synchronized StatusResponse fullRefresh() throws IOException {
+        long now = System.currentTimeMillis();
+        final List<Resource> platforms = new ArrayList<Resource>();
+        StatusResponse response =
+                _api.getPlatformResources(_verbose, true,
+                                          new ElementHandler<Resource>() {
+                                              public void handleElement(Resource r) {
+                                                  platforms.add(r);
+                                              }
+                                          });
+        if (response.getStatus() == ResponseStatus.SUCCESS) {
+            update(platforms, now, now);
+        }
+        return response;
+    }
+
+    /**
+     * @return The time of the last successful refresh, in milliseconds
+     * since the epoch, or 0 if the snapshot was never refreshed.
+     */
+    public synchronized long getLastRefresh() {
+        return _lastRefresh;
+    }
+
+    /**
+     * @return The number of resources in the snapshot, including all
+     * child resources.
+     */
+    public int size() {
+        return _index.byId.size();
+    }
+
+    /**
+     * @param id The id of the resource.
+     * @return The {@link org.hyperic.hq.hqapi1.types.Resource} with the
+     * given id, or null if it is not in the snapshot.
+     */
+    public Resource getResource(int id) {
+        return _index.byId.get(id);
+    }
+
+    /**
+     * @param aeid The aeid of the resource, for example '1:10001'.
+     * @return The {@link org.hyperic.hq.hqapi1.types.Resource} with the
+     * given aeid, or null if it is not in the snapshot.
+     */
+    public Resource getResource(String aeid) {
+        return _index.byAeid.get(aeid);
+    }
+
+    /**
+     * @param name The name of the platform.
+     * @return The platform {@link org.hyperic.hq.hqapi1.types.Resource}
+     * with the given name, or null if it is not in the snapshot.
+     */
+    public Resource getPlatformResource(String name) {
+        return _index.byName.get(name);
+    }
+
+    /**
+     * @param id The id of a platform, server or service.
+     * @return The platform {@link org.hyperic.hq.hqapi1.types.Resource}
+     * the resource with the given id belongs to, or null if it is not in
+     * the snapshot.
+     */
+    public Resource getPlatformResource(int id) {
+        return _index.platformById.get(id);
+    }
+
+    /**
+     * @param fqdn The fully qualified domain name of the platform.
+     * @return The platform {@link org.hyperic.hq.hqapi1.types.Resource}
+     * with the given fqdn, or null if it is not in the snapshot.
+     */
+    public Resource getPlatformResourceByFqdn(String fqdn) {
+        return _index.byFqdn.get(fqdn);
+    }
+
+    /**
+     * @return All platform {@link org.hyperic.hq.hqapi1.types.Resource}s
+     * in the snapshot, sorted by name.
+     */
+    public List<Resource> getPlatformResources() {
+        return _index.platforms;
+    }
+
+    private void update(Collection<Resource> platforms, long refreshed,
+                        long fullRefreshed)
+        throws IOException
+    {
+        Index index = new Index(platforms);
+        if (_file != null) {
+            save(index, refreshed, fullRefreshed);
+        }
+        _index = index;
+        _lastRefresh = refreshed;
+        _lastFullRefresh = fullRefreshed;
+    }
+
+    private void load() throws IOException {
+        DataInputStream is =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+        try {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new IOException(_file + " is not an inventory snapshot");
+            }
+            if (is.readBoolean() != _verbose) {
+                // Taken with different options, needs a full refresh
+                return;
+            }
+            long refreshed = is.readLong();
+            long fullRefreshed = is.readLong();
+
+            ResourcesResponse resources =
+                    XmlUtil.deserialize(ResourcesResponse.class,
+                                        new GZIPInputStream(is));
+            _index = new Index(resources.getResource());
+            _lastRefresh = refreshed;
+            _lastFullRefresh = fullRefreshed;
+        } catch (JAXBException e) {
+            throw new IOException("Unable to read " + _file + ": " +
+                                  e.getMessage());
+        } finally {
+            is.close();
+        }
+    }
+
+    private void save(Index index, long refreshed, long fullRefreshed)
+        throws IOException
+    {
+        ResourcesResponse resources = new ResourcesResponse();
+        resources.setStatus(ResponseStatus.SUCCESS);
+        resources.getResource().addAll(index.platforms);
+
+        // Write to a temporary file first so a failed write never leaves a
+        // truncated snapshot behind.
+        File tmp = new File(_file.getPath() + ".tmp");
+        DataOutputStream os =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeBoolean(_verbose);
+            os.writeLong(refreshed);
+            os.writeLong(fullRefreshed);
+
+            GZIPOutputStream gz = new GZIPOutputStream(os);
+            XmlUtil.serialize(resources, gz, Boolean.FALSE);
+            gz.finish();
+        } catch (JAXBException e) {
+            throw new IOException("Unable to write " + _file + ": " +
+                                  e.getMessage());
+        } finally {
+            os.close();
+        }
+
+        if (!tmp.renameTo(_file)) {
+            _file.delete();
+            if (!tmp.renameTo(_file)) {
+                throw new IOException("Unable to write " + _file);
+            }
+        }
+    }
+
+    /**
+     * The platforms of a snapshot with their lookup tables.  Never modified
+     * once built, so lookups need no locking.
+     */
+    private static class Index {
+        final List<Resource> platforms;
+        final Map<Integer,Resource> byId = new HashMap<Integer,Resource>();
+        final Map<Integer,Resource> platformById = new HashMap<Integer,Resource>();
+        final Map<String,Resource> byAeid = new HashMap<String,Resource>();
+        final Map<String,Resource> byName = new HashMap<String,Resource>();
+        final Map<String,Resource> byFqdn = new HashMap<String,Resource>();
+
+        Index(Collection<Resource> resources) {
+            List<Resource> sorted = new ArrayList<Resource>(resources);
+            Collections.sort(sorted, new Comparator<Resource>() {
+                public int compare(Resource a, Resource b) {
+                    return a.getName().compareTo(b.getName());
+                }
+            });
+            platforms = Collections.unmodifiableList(sorted);
+
+            for (Resource platform : platforms) {
+                byName.put(platform.getName(), platform);
+                for (ResourceInfo info : platform.getResourceInfo()) {
+                    if (INFO_FQDN.equals(info.getKey()) && info.getValue() != null) {
+                        byFqdn.put(info.getValue(), platform);
+                    }
+                }
+                add(platform, platform);
+            }
+        }
+
+        private void add(Resource r, Resource platform) {
+            byId.put(r.getId(), r);
+            platformById.put(r.getId(), platform);
+            if (r.getTypeId() != null && r.getInstanceId() != null) {
+                byAeid.put(r.getTypeId() + ":" + r.getInstanceId(), r);
+            }
+            for (Resource child : r.getResource()) {
+                add(child, platform);
+            }
+        }
+    }
+}
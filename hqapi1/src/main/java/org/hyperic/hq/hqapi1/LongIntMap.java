@@ -0,0 +1,161 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1;
+
+/**
+ * A map from long keys to int values using open addressing with linear
+ * probing, so entries take no objects and lookups do not box.  The key 0 is
+ * reserved to mark empty slots.
+ * <br><br>
+ * This class is not thread safe.
+ */
+final class LongIntMap {
+
+    private static final long EMPTY = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] _keys;
+    private int[] _values;
+    private int _size;
+
+    LongIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expected The number of entries to size the map for.
+     */
+    LongIntMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        // Keep the load factor at or below 0.5
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        _keys = new long[capacity];
+        _values = new int[capacity];
+    }
+
+    /**
+     * @return The value for the given key, or missing if there is none.
+     */
+    int get(long key, int missing) {
+        int mask = _keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = _keys[i];
+            if (k == key) {
+                return _values[i];
+            } else if (k == EMPTY) {
+                return missing;
+            }
+        }
+    }
+
+    void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key must not be " + EMPTY);
+        }
+        if ((_size + 1) * 2 > _keys.length) {
+            resize(_keys.length << 1);
+        }
+        int mask = _keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = _keys[i];
+            if (k == key) {
+                _values[i] = value;
+                return;
+            } else if (k == EMPTY) {
+                _keys[i] = key;
+                _values[i] = value;
+                _size++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the given key, if present.
+     */
+    void remove(long key) {
+        int mask = _keys.length - 1;
+        int i = slot(key, mask);
+        while (_keys[i] != key) {
+            if (_keys[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        _size--;
+
+        // Shift back following entries of the probe sequence, so lookups
+        // never stop early at the freed slot.
+        for (int j = (i + 1) & mask; _keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(_keys[j], mask);
+            // Move the entry at j to i unless its home slot lies in (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                _keys[i] = _keys[j];
+                _values[i] = _values[j];
+                i = j;
+            }
+        }
+        _keys[i] = EMPTY;
+    }
+
+    int size() {
+        return _size;
+    }
+
+    void clear() {
+        _keys = new long[MIN_CAPACITY];
+        _values = new int[MIN_CAPACITY];
+        _size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] keys = _keys;
+        int[] values = _values;
+        _keys = new long[capacity];
+        _values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int j = slot(keys[i], mask);
+                while (_keys[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                _keys[j] = keys[i];
+                _values[j] = values[i];
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        // Spread the bits, ids are sequential
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache of lookup results with a time to live, used by the
+ * APIs to avoid repeated round trips for data that rarely changes.
+ * <br><br>
+ * Entries expire once they are older than the time to live.  When the
+ * cache is full the least recently used entry is evicted.  Hit, miss and
+ * eviction counts are kept for monitoring.
+ * <br><br>
+ * This class is thread safe.
+ *
+ * @see ResourceApi#enableCache(long, int)
+ * @see MetricApi#enableCache(long, int)
+ */
+public class LookupCache<K,V> {
+
+    private final long _ttl;
+    private final int _maxEntries;
+    private final Map<K,CacheEntry<V>> _entries;
+
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+
+    /**
+     * @param ttl The time an entry stays valid, in milliseconds.
+     * @param maxEntries The maximum number of entries to keep.
+     */
+    public LookupCache(long ttl, int maxEntries) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be > 0");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be > 0");
+        }
+        _ttl = ttl;
+        _maxEntries = maxEntries;
+        _entries = new LinkedHashMap<K,CacheEntry<V>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<K,CacheEntry<V>> eldest) {
+                if (size() > _maxEntries) {
+                    _evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key The key to look up.
+     * @return The cached value, or null if there is no valid entry.
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> e = _entries.get(key);
+        if (e == null) {
+            _misses++;
+            return null;
+        }
+        if (e.expires <= System.currentTimeMillis()) {
+            _entries.remove(key);
+            _misses++;
+            return null;
+        }
+        _hits++;
+        return e.value;
+    }
+
+    /**
+     * @param key The key to cache the value under.
+     * @param value The value to cache.
+     */
+    public synchronized void put(K key, V value) {
+        _entries.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + _ttl));
+    }
+
+    /**
+     * Remove a single entry.
+     *
+     * @param key The key of the entry to remove.
+     */
+    public synchronized void invalidate(K key) {
+        _entries.remove(key);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void invalidateAll() {
+        _entries.clear();
+    }
+
+    /**
+     * @return The maximum number of entries kept.
+     */
+    public int getMaxEntries() {
+        return _maxEntries;
+    }
+
+    /**
+     * @return The number of entries, including any that have expired but
+     * not yet been removed.
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Remove all expired entries.
+     */
+    public synchronized void purge() {
+        long now = System.currentTimeMillis();
+        for (Iterator<CacheEntry<V>> i = _entries.values().iterator(); i.hasNext(); ) {
+            if (i.next().expires <= now) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public synchronized long getHitCount() {
+        return _hits;
+    }
+
+    /**
+     * @return The number of lookups not found in the cache.
+     */
+    public synchronized long getMissCount() {
+        return _misses;
+    }
+
+    /**
+     * @return The number of entries evicted to make room for new ones.
+     */
+    public synchronized long getEvictionCount() {
+        return _evictions;
+    }
+
+    private static class CacheEntry<V> {
+        final V value;
+        final long expires;
+
+        CacheEntry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
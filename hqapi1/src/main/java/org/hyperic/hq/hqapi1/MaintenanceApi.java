@@ -77,7 +77,7 @@ public class MaintenanceApi extends BaseApi {
         params.put("start", new String[] { Long.toString(start) });
         params.put("end", new String[] { Long.toString(end) });
         return doGet("maintenance/schedule.hqu", params,
-                     new XmlResponseHandler<MaintenanceResponse>(MaintenanceResponse.class));
+                     new XmlResponseHandler<MaintenanceResponse>(MaintenanceResponse.class), false);
     }
 
     /**
@@ -99,7 +99,7 @@ public class MaintenanceApi extends BaseApi {
         params.put("start", new String[] { Long.toString(start) });
         params.put("end", new String[] { Long.toString(end) });
         return doGet("maintenance/schedule.hqu", params,
-                     new XmlResponseHandler<MaintenanceResponse>(MaintenanceResponse.class));
+                     new XmlResponseHandler<MaintenanceResponse>(MaintenanceResponse.class), false);
     }
 
     /**
@@ -116,7 +116,7 @@ public class MaintenanceApi extends BaseApi {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("groupId", new String[] { Integer.toString(groupId) });
         return doGet("maintenance/unschedule.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -133,7 +133,7 @@ public class MaintenanceApi extends BaseApi {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("resourceId", new String[] { resource.getId().toString() });
         return doGet("maintenance/unschedule.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -39,6 +39,7 @@ import org.hyperic.hq.hqapi1.types.MetricsRequest;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
 import org.hyperic.hq.hqapi1.types.Resource;
 import org.hyperic.hq.hqapi1.types.ResourcePrototype;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
 import org.hyperic.hq.hqapi1.types.StatusResponse;
 import org.hyperic.hq.hqapi1.types.MetricsRescheduleRequest;
 
@@ -63,8 +64,48 @@ import java.util.ArrayList;
  */
 public class MetricApi extends BaseApi {
 
+    private volatile LookupCache<String,MetricTemplatesResponse> _templateCache;
+
+    // The MetricApi owning the cache, this instance unless it belongs to a
+    // view created by HQApi.withTimeouts().
+    private final MetricApi _root;
+
     MetricApi(HQConnection conn) {
+        this(conn, null);
+    }
+
+    MetricApi(HQConnection conn, MetricApi parent) {
         super(conn);
+        _root = parent == null ? this : parent._root;
+    }
+
+    /**
+     * Cache the results of {@link #getMetricTemplates(ResourcePrototype)}
+     * in memory.  The cache is cleared by
+     * {@link #syncMetricTemplates(java.util.List)}.  Cached responses are
+     * shared between callers and must not be modified.
+     *
+     * @param ttl The time cached MetricTemplates stay valid, in milliseconds.
+     * @param maxEntries The maximum number of ResourcePrototypes to cache
+     * MetricTemplates for.
+     */
+    public void enableCache(long ttl, int maxEntries) {
+        _root._templateCache = new LookupCache<String,MetricTemplatesResponse>(ttl, maxEntries);
+    }
+
+    /**
+     * Stop caching MetricTemplates and drop any cached ones.
+     */
+    public void disableCache() {
+        _root._templateCache = null;
+    }
+
+    /**
+     * @return The cache of MetricTemplates by ResourcePrototype name, or
+     * null if caching is not enabled.
+     */
+    public LookupCache<String,MetricTemplatesResponse> getTemplateCache() {
+        return _root._templateCache;
     }
     
     /**
@@ -84,7 +125,7 @@ public class MetricApi extends BaseApi {
     {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("resourceId", new String[] { Integer.toString(resource.getId()) });
-        return doGet("metric/getMetrics.hqu", params,
+        return doCoalescedGet("metric/getMetrics.hqu", params,
                      new XmlResponseHandler<MetricsResponse>(MetricsResponse.class));
     }
 
@@ -107,7 +148,7 @@ public class MetricApi extends BaseApi {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("resourceId", new String[] { Integer.toString(resource.getId()) });
         params.put("enabled", new String[] { Boolean.toString(true) });
-        return doGet("metric/getMetrics.hqu", params,
+        return doCoalescedGet("metric/getMetrics.hqu", params,
                      new XmlResponseHandler<MetricsResponse>(MetricsResponse.class));
     }
 
@@ -130,7 +171,7 @@ public class MetricApi extends BaseApi {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("resourceId", new String[] { Integer.toString(resource.getId()) });
         params.put("enabled", new String[] { Boolean.toString(enabled) });
-        return doGet("metric/getMetrics.hqu", params,
+        return doCoalescedGet("metric/getMetrics.hqu", params,
                      new XmlResponseHandler<MetricsResponse>(MetricsResponse.class));
     }
 
@@ -151,7 +192,7 @@ public class MetricApi extends BaseApi {
     {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("id", new String[] { Integer.toString(id) });
-        return doGet("metric/getMetric.hqu", params,
+        return doCoalescedGet("metric/getMetric.hqu", params,
                      new XmlResponseHandler<MetricResponse>(MetricResponse.class));
     }
 
@@ -171,7 +212,7 @@ public class MetricApi extends BaseApi {
         MetricsRequest syncRequest = new MetricsRequest();
         syncRequest.getMetric().addAll(metrics);
         return doPost("metric/syncMetrics.hqu", syncRequest,
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -210,10 +251,23 @@ public class MetricApi extends BaseApi {
     public MetricTemplatesResponse getMetricTemplates(ResourcePrototype prototype)
         throws IOException
     {
+        LookupCache<String,MetricTemplatesResponse> cache = _root._templateCache;
+        if (cache != null) {
+            MetricTemplatesResponse cached = cache.get(prototype.getName());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("prototype", new String[] { prototype.getName() });
-        return doGet("metric/getTemplates.hqu", params,
-                     new XmlResponseHandler<MetricTemplatesResponse>(MetricTemplatesResponse.class));
+        MetricTemplatesResponse response =
+            doCoalescedGet("metric/getTemplates.hqu", params,
+                  new XmlResponseHandler<MetricTemplatesResponse>(MetricTemplatesResponse.class));
+        if (cache != null && response.getStatus() == ResponseStatus.SUCCESS) {
+            cache.put(prototype.getName(), response);
+        }
+        return response;
     }
 
     /**
@@ -231,8 +285,16 @@ public class MetricApi extends BaseApi {
     {
         MetricTemplatesRequest syncRequest = new MetricTemplatesRequest();
         syncRequest.getMetricTemplate().addAll(templates);
-        return doPost("metric/syncTemplates.hqu", syncRequest,
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+        try {
+            return doPost("metric/syncTemplates.hqu", syncRequest,
+                          new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
+        } finally {
+            // Even a failed sync may have updated some templates
+            LookupCache<String,MetricTemplatesResponse> cache = _root._templateCache;
+            if (cache != null) {
+                cache.invalidateAll();
+            }
+        }
     }
 
     /**
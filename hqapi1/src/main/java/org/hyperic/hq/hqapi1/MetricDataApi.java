@@ -1,8 +1,11 @@
 package org.hyperic.hq.hqapi1;
 
 import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
 import org.hyperic.hq.hqapi1.types.MetricDataResponse;
 import org.hyperic.hq.hqapi1.types.DataPointsRequest;
+import org.hyperic.hq.hqapi1.types.MetricDataPoints;
+import org.hyperic.hq.hqapi1.types.MetricsDataPointsRequest;
 import org.hyperic.hq.hqapi1.types.MetricsResponse;
 import org.hyperic.hq.hqapi1.types.StatusResponse;
 import org.hyperic.hq.hqapi1.types.LastMetricsDataResponse;
@@ -16,6 +19,7 @@ import org.hyperic.hq.hqapi1.types.Resource;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -59,6 +63,115 @@ public class MetricDataApi extends BaseApi {
                      new XmlResponseHandler<MetricDataResponse>(MetricDataResponse.class));
     }
 
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for the
+     * given {@link org.hyperic.hq.hqapi1.types.Metric}, rolled up by the
+     * HQ server.
+     *
+     * @param metric The {@link org.hyperic.hq.hqapi1.types.Metric} to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     * @param rollup The {@link Rollup} to apply to the data.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link org.hyperic.hq.hqapi1.types.MetricDataResponse#getMetricData()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricDataResponse getData(Metric metric, long start, long end,
+                                      Rollup rollup)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("id", new String[] { Integer.toString(metric.getId()) });
+        params.put("start", new String[] { Long.toString(start)});
+        params.put("end", new String[] { Long.toString(end)});
+        rollup.addParams(params);
+        return doGet("metricData/get.hqu", params,
+                     new XmlResponseHandler<MetricDataResponse>(MetricDataResponse.class));
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for the
+     * given {@link org.hyperic.hq.hqapi1.types.Metric} over a long time
+     * range.  The range is fetched in one day windows with up to 4 windows
+     * in flight at a time.
+     *
+     * @see #getDataSplit(org.hyperic.hq.hqapi1.types.Metric, long, long, long, int)
+     */
+    public MetricDataResponse getDataSplit(Metric metric, long start, long end)
+        throws IOException
+    {
+        return getDataSplit(metric, start, end, BulkFetcher.DEFAULT_WINDOW,
+                            BulkFetcher.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for the
+     * given {@link org.hyperic.hq.hqapi1.types.Metric} over a long time
+     * range.  The range is split into windows that are fetched concurrently
+     * and stitched back together, so no single request has to return the
+     * whole range.
+     *
+     * @param metric The {@link org.hyperic.hq.hqapi1.types.Metric} to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     * @param window The length of each window, in milliseconds.
+     * @param parallelism The maximum number of requests in flight at once.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried for every window.  The returned
+     * data can be retrieved via
+     * {@link org.hyperic.hq.hqapi1.types.MetricDataResponse#getMetricData()}
+     * and is in ascending time order.  If a window fails its response is
+     * returned.
+     *
+     * @throws IOException If a network error occurs while making any of the
+     * requests.
+     */
+    public MetricDataResponse getDataSplit(final Metric metric, long start, long end,
+                                           long window, int parallelism)
+        throws IOException
+    {
+        return BulkFetcher.fetchRange(start, end, window, parallelism,
+                                      new BulkFetcher.RangeRequest() {
+            public MetricDataResponse execute(long start, long end) throws IOException {
+                return getData(metric, start, end);
+            }
+        });
+    }
+
+    /**
+     * Get the data for the given {@link org.hyperic.hq.hqapi1.types.Metric}
+     * as a {@link MetricDataSeries}.  The data is transferred in the compact
+     * {@link MetricDataFormat} encoding and decoded into primitive arrays,
+     * which is considerably cheaper than
+     * {@link #getData(org.hyperic.hq.hqapi1.types.Metric, long, long)} for
+     * large time ranges.
+     *
+     * @param metric The {@link org.hyperic.hq.hqapi1.types.Metric} to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link MetricDataSeriesResponse#getMetricDataSeries()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricDataSeriesResponse getDataSeries(Metric metric, long start, long end)
+        throws IOException
+    {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("id", new String[] { Integer.toString(metric.getId()) });
+        params.put("start", new String[] { Long.toString(start)});
+        params.put("end", new String[] { Long.toString(end)});
+        params.put("format", new String[] { MetricDataFormat.FORMAT_BINARY });
+        return doGet("metricData/get.hqu", params,
+                     new MetricDataSeriesResponseHandler());
+    }
+
     /**
      * Get the {@link org.hyperic.hq.hqapi1.types.LastMetricData} for the
      * given {@link org.hyperic.hq.hqapi1.types.Metric}. This object
@@ -98,6 +211,150 @@ public class MetricDataApi extends BaseApi {
     public MetricsDataResponse getData(List<Metric> metrics, long start, long end)
         throws IOException
     {
+        return doGet("metricData/getMulti.hqu", getMultiParams(metrics, start, end),
+                     new XmlResponseHandler<MetricsDataResponse>(MetricsDataResponse.class));
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for the
+     * given List of {@link org.hyperic.hq.hqapi1.types.Metric}s, rolled up
+     * by the HQ server.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     * @param rollup The {@link Rollup} to apply to the data of each Metric.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link org.hyperic.hq.hqapi1.types.MetricsDataResponse#getMetricData()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricsDataResponse getData(List<Metric> metrics, long start, long end,
+                                       Rollup rollup)
+        throws IOException
+    {
+        Map<String, String[]> params = getMultiParams(metrics, start, end);
+        rollup.addParams(params);
+        return doGet("metricData/getMulti.hqu", params,
+                     new XmlResponseHandler<MetricsDataResponse>(MetricsDataResponse.class));
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for a large
+     * List of {@link org.hyperic.hq.hqapi1.types.Metric}s.  The Metrics are
+     * requested in chunks of 250 with up to 4 chunks in flight at a time.
+     *
+     * @see #getDataBulk(java.util.List, long, long, int, int)
+     */
+    public BulkMetricsDataResponse getDataBulk(List<Metric> metrics, long start, long end)
+        throws IOException
+    {
+        return getDataBulk(metrics, start, end, BulkFetcher.DEFAULT_CHUNK_SIZE,
+                           BulkFetcher.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Get the {@link org.hyperic.hq.hqapi1.types.MetricData} for a large
+     * List of {@link org.hyperic.hq.hqapi1.types.Metric}s.  The Metrics are
+     * split into chunks that are requested concurrently, and the results are
+     * merged in the order of the given List.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     * @param chunkSize The maximum number of Metrics per request.
+     * @param parallelism The maximum number of requests in flight at once.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data for all chunks was succesfully queried.  The returned data
+     * can be retrieved via {@link BulkMetricsDataResponse#getMetricData()},
+     * chunks that failed are listed in
+     * {@link BulkMetricsDataResponse#getChunkFailure()}.
+     *
+     * @throws IOException If a network error occurs for every chunk.
+     */
+    public BulkMetricsDataResponse getDataBulk(List<Metric> metrics,
+                                               final long start, final long end,
+                                               int chunkSize, int parallelism)
+        throws IOException
+    {
+        List<Integer> ids = new ArrayList<Integer>(metrics.size());
+        for (Metric m : metrics) {
+            ids.add(m.getId());
+        }
+
+        return BulkFetcher.fetch(ids, chunkSize, parallelism,
+                                 new BulkFetcher.ChunkRequest() {
+            public MetricsDataResponse execute(List<Integer> chunk) throws IOException {
+                Map<String, String[]> params = new HashMap<String, String[]>();
+                String[] ids = new String[chunk.size()];
+                for (int i = 0; i < chunk.size(); i++) {
+                    ids[i] = chunk.get(i).toString();
+                }
+                params.put("id", ids);
+                params.put("start", new String[] { Long.toString(start)});
+                params.put("end", new String[] { Long.toString(end)});
+                return doGet("metricData/getMulti.hqu", params,
+                             new XmlResponseHandler<MetricsDataResponse>(MetricsDataResponse.class));
+            }
+        });
+    }
+
+    /**
+     * Stream the {@link org.hyperic.hq.hqapi1.types.MetricData} for the
+     * given List of {@link org.hyperic.hq.hqapi1.types.Metric}s to the given
+     * handler.  The data for each Metric is passed to the handler as soon as
+     * it has been read, so the data for all Metrics is never held in memory
+     * at once.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     * @param handler The {@link ElementHandler} the data for each Metric is
+     * passed to.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public StatusResponse getData(List<Metric> metrics, long start, long end,
+                                  ElementHandler<MetricData> handler)
+        throws IOException
+    {
+        return doGet("metricData/getMulti.hqu", getMultiParams(metrics, start, end),
+                     new XmlStreamingResponseHandler<MetricData>("MetricData", MetricData.class,
+                                                                 handler));
+    }
+
+    /**
+     * Get the data for the given List of
+     * {@link org.hyperic.hq.hqapi1.types.Metric}s as
+     * {@link MetricDataSeries}.  The data is transferred in the compact
+     * {@link MetricDataFormat} encoding and decoded into primitive arrays.
+     *
+     * @param metrics The List of {@link org.hyperic.hq.hqapi1.types.Metric}s to query.
+     * @param start The start time to query, in epoch-millis.
+     * @param end The end time to query, in epoch-millis.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned data can be retrieved
+     * via {@link MetricDataSeriesResponse#getMetricDataSeries()}.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     */
+    public MetricDataSeriesResponse getDataSeries(List<Metric> metrics, long start, long end)
+        throws IOException
+    {
+        Map<String, String[]> params = getMultiParams(metrics, start, end);
+        params.put("format", new String[] { MetricDataFormat.FORMAT_BINARY });
+        return doGet("metricData/getMulti.hqu", params,
+                     new MetricDataSeriesResponseHandler());
+    }
+
+    private Map<String, String[]> getMultiParams(List<Metric> metrics, long start, long end) {
         Map<String, String[]> params = new HashMap<String, String[]>();
         String[] ids = new String[metrics.size()];
         for (int i = 0; i < metrics.size(); i++) {
@@ -107,8 +364,7 @@ public class MetricDataApi extends BaseApi {
         params.put("id", ids);
         params.put("start", new String[] { Long.toString(start)});
         params.put("end", new String[] { Long.toString(end)});
-        return doGet("metricData/getMulti.hqu", params, 
-                     new XmlResponseHandler<MetricsDataResponse>(MetricsDataResponse.class));
+        return params;
     }
 
     /**
@@ -197,7 +453,9 @@ public class MetricDataApi extends BaseApi {
      * @param data A List of {@link org.hyperic.hq.hqapi1.types.DataPoint}s to insert.
      *
      * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if the
-     * data was sucessfully inserted.
+     * data was sucessfully inserted.  The data points are all validated
+     * before any are inserted, they are then inserted in batches of 1000.  If
+     * inserting fails part way the batches already inserted are kept.
      * 
      * @throws IOException If a network error occurs while making the request.
      */
@@ -208,7 +466,42 @@ public class MetricDataApi extends BaseApi {
         request.setMetricId(metric.getId());
         request.getDataPoint().addAll(data);
 
-        return doPost("metricData/put.hqu", request, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+        return doPostXml("metricData/put.hqu", request, 
+                         new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+    }
+
+    /**
+     * Insert {@link org.hyperic.hq.hqapi1.types.DataPoint}s for multiple
+     * {@link org.hyperic.hq.hqapi1.types.Metric}s in a single request.  If
+     * any of the Metrics cannot be found no data is inserted.
+     *
+     * @param data The DataPoints to insert, keyed by Metric.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if the
+     * data was successfully inserted.  Every metric and data point is
+     * validated before any data is inserted.
+     *
+     * @throws IOException If a network error occurs while making the request.
+     *
+     * @see MetricWriter
+     */
+    public StatusResponse addData(Map<Metric,List<DataPoint>> data)
+        throws IOException
+    {
+        MetricsDataPointsRequest request = new MetricsDataPointsRequest();
+        for (Map.Entry<Metric,List<DataPoint>> e : data.entrySet()) {
+            MetricDataPoints points = new MetricDataPoints();
+            points.setMetricId(e.getKey().getId());
+            points.getDataPoint().addAll(e.getValue());
+            request.getMetricDataPoints().add(points);
+        }
+        return addData(request);
+    }
+
+    StatusResponse addData(MetricsDataPointsRequest request)
+        throws IOException
+    {
+        return doPostXml("metricData/putMulti.hqu", request,
+                         new XmlResponseHandler<StatusResponse>(StatusResponse.class));
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of metric data used by the metricData get and
+ * getMulti operations when called with format=binary.  The layout is:
+ * <pre>
+ * int    magic ('HQMD')
+ * byte   version
+ * int    number of series
+ * for each series:
+ *   int    resource id
+ *   UTF    resource name
+ *   int    metric id
+ *   UTF    metric name
+ *   int    number of data points
+ *   varint timestamp deltas, zig-zag encoded, the first relative to 0
+ *   double values
+ * </pre>
+ * Integers and doubles are big-endian as written by
+ * {@link java.io.DataOutputStream}.  Each data point takes 8 bytes for the
+ * value and usually 2-3 bytes for the timestamp.
+ */
+public final class MetricDataFormat {
+
+    /**
+     * The content type of binary encoded metric data.
+     */
+    public static final String CONTENT_TYPE = "application/x-hqapi-metricdata";
+
+    /**
+     * The value of the format parameter that requests binary metric data.
+     */
+    public static final String FORMAT_BINARY = "binary";
+
+    private static final int MAGIC = 0x48514D44;
+    private static final byte VERSION = 1;
+
+    private MetricDataFormat() {
+    }
+
+    /**
+     * Write the header of an encoded response.
+     *
+     * @param out The stream to write to.
+     * @param count The number of series that will follow.
+     * @throws IOException If an error occurs writing to the stream.
+     */
+    public static void writeHeader(DataOutputStream out, int count)
+        throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(count);
+    }
+
+    /**
+     * Write a single series.
+     *
+     * @param out The stream to write to.
+     * @param series The series to write.
+     * @throws IOException If an error occurs writing to the stream.
+     */
+    public static void writeSeries(DataOutputStream out, MetricDataSeries series)
+        throws IOException
+    {
+        out.writeInt(series.getResourceId());
+        out.writeUTF(series.getResourceName());
+        out.writeInt(series.getMetricId());
+        out.writeUTF(series.getMetricName());
+
+        long[] timestamps = series.getTimestamps();
+        double[] values = series.getValues();
+        out.writeInt(timestamps.length);
+
+        long last = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            writeVarLong(out, timestamps[i] - last);
+            last = timestamps[i];
+        }
+        for (int i = 0; i < values.length; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    /**
+     * Read all series from an encoded response.
+     *
+     * @param is The stream to read from.
+     * @return The decoded series, in the order they were written.
+     * @throws IOException If the stream could not be read or is not in the
+     * expected format.
+     */
+    public static List<MetricDataSeries> read(InputStream is)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid metric data stream");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported metric data version " + version);
+        }
+
+        int count = in.readInt();
+        List<MetricDataSeries> result = new ArrayList<MetricDataSeries>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(readSeries(in));
+        }
+        return result;
+    }
+
+    private static MetricDataSeries readSeries(DataInputStream in)
+        throws IOException
+    {
+        int resourceId = in.readInt();
+        String resourceName = in.readUTF();
+        int metricId = in.readInt();
+        String metricName = in.readUTF();
+
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid data point count " + size);
+        }
+        long[] timestamps = new long[size];
+        double[] values = new double[size];
+
+        long last = 0;
+        for (int i = 0; i < size; i++) {
+            last += readVarLong(in);
+            timestamps[i] = last;
+        }
+        for (int i = 0; i < size; i++) {
+            values[i] = in.readDouble();
+        }
+        return new MetricDataSeries(resourceId, resourceName, metricId,
+                                    metricName, timestamps, values);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value)
+        throws IOException
+    {
+        // Zig-zag so that small negative deltas stay small
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int)v);
+    }
+
+    private static long readVarLong(DataInputStream in)
+        throws IOException
+    {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            v |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed variable length value");
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Polls {@link org.hyperic.hq.hqapi1.types.MetricData} for a fixed List of
+ * {@link org.hyperic.hq.hqapi1.types.Metric}s, only returning data points
+ * that have not been returned by a previous poll.
+ * <br><br>
+ * The poller keeps a cursor per metric id holding the timestamp of the last
+ * data point seen.  Each call to {@link #poll()} queries every metric from
+ * its cursor and drops any points at or before it, so points on the
+ * boundary of two polls are only returned once.  Metrics that have not
+ * returned data yet are queried from the configured look back, and data
+ * older than the look back is never queried: a poller resumed after a
+ * longer gap skips the data in between.
+ * <br><br>
+ * Metrics whose cursors are of a similar age are queried in the same
+ * request.  A request covers at most twice the time since the newest cursor
+ * in it, so a single new or stale metric does not make every other metric
+ * fetch its full look back.
+ * <br><br>
+ * If a cursor file is given the cursors are loaded from it on creation and
+ * written back after every successful poll, allowing a restarted poller to
+ * resume where it left off.
+ */
+public class MetricDataPoller {
+
+    private final MetricDataApi _api;
+    private final List<Metric> _metrics;
+    private final long _lookBack;
+    private final File _cursorFile;
+    private final Map<Integer,Long> _cursors = new HashMap<Integer,Long>();
+
+    /**
+     * Create a poller that keeps its cursors in memory only.
+     *
+     * @param api The {@link MetricDataApi} to query.
+     * @param metrics The {@link org.hyperic.hq.hqapi1.types.Metric}s to poll.
+     * @param lookBack How far back, in milliseconds, to query metrics
+     * without a cursor.
+     */
+    public MetricDataPoller(MetricDataApi api, List<Metric> metrics,
+                            long lookBack) {
+        if (lookBack <= 0) {
+            throw new IllegalArgumentException("Look back must be positive");
+        }
+        _api = api;
+        _metrics = new ArrayList<Metric>(metrics);
+        _lookBack = lookBack;
+        _cursorFile = null;
+    }
+
+    /**
+     * Create a poller that persists its cursors to the given file.
+     *
+     * @param api The {@link MetricDataApi} to query.
+     * @param metrics The {@link org.hyperic.hq.hqapi1.types.Metric}s to poll.
+     * @param lookBack How far back, in milliseconds, to query metrics
+     * without a cursor.
+     * @param cursorFile The file to load cursors from and save cursors to, or
+     * null to keep cursors in memory only.  The file does not need to exist.
+     *
+     * @throws IOException If the cursor file exists and cannot be read.
+     */
+    public MetricDataPoller(MetricDataApi api, List<Metric> metrics,
+                            long lookBack, File cursorFile)
+        throws IOException
+    {
+        if (lookBack <= 0) {
+            throw new IllegalArgumentException("Look back must be positive");
+        }
+        _api = api;
+        _metrics = new ArrayList<Metric>(metrics);
+        _lookBack = lookBack;
+        _cursorFile = cursorFile;
+
+        if (_cursorFile != null && _cursorFile.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Get the data points reported since the last poll.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS}
+     * if the data was succesfully queried.  The returned
+     * {@link org.hyperic.hq.hqapi1.types.MetricData} only contains data
+     * points newer than the cursor of each metric.  The cursors are left
+     * unchanged if the query fails.
+     *
+     * @throws IOException If a network error occurs while making the request,
+     * or the cursors cannot be saved.
+     */
+    public synchronized MetricsDataResponse poll() throws IOException {
+        long end = System.currentTimeMillis();
+        long floor = end - _lookBack;
+
+        // Group metrics by the power of two of the time since their cursor
+        Map<Integer,List<Metric>> groups = new TreeMap<Integer,List<Metric>>();
+        Map<Integer,Long> starts = new HashMap<Integer,Long>();
+        for (Metric m : _metrics) {
+            Long cursor = _cursors.get(m.getId());
+            long start = cursor == null ? floor : Math.max(floor, cursor + 1);
+            if (start > end) {
+                // Polled again within the same millisecond
+                continue;
+            }
+            int group = 64 - Long.numberOfLeadingZeros(end - start);
+            List<Metric> metrics = groups.get(group);
+            if (metrics == null) {
+                metrics = new ArrayList<Metric>();
+                groups.put(group, metrics);
+            }
+            metrics.add(m);
+            Long groupStart = starts.get(group);
+            if (groupStart == null || start < groupStart) {
+                starts.put(group, start);
+            }
+        }
+
+        MetricsDataResponse response = new MetricsDataResponse();
+        response.setStatus(ResponseStatus.SUCCESS);
+        if (groups.isEmpty()) {
+            return response;
+        }
+
+        for (Map.Entry<Integer,List<Metric>> e : groups.entrySet()) {
+            MetricsDataResponse groupResponse =
+                _api.getData(e.getValue(), starts.get(e.getKey()), end);
+            if (groupResponse.getStatus() != ResponseStatus.SUCCESS) {
+                return groupResponse;
+            }
+            response.getMetricData().addAll(groupResponse.getMetricData());
+        }
+
+        for (MetricData data : response.getMetricData()) {
+            Long cursor = _cursors.get(data.getMetricId());
+            long last = cursor == null ? Long.MIN_VALUE : cursor;
+            long newest = last;
+            for (Iterator<DataPoint> i = data.getDataPoint().iterator(); i.hasNext(); ) {
+                long timestamp = i.next().getTimestamp();
+                if (timestamp <= last) {
+                    i.remove();
+                } else if (timestamp > newest) {
+                    newest = timestamp;
+                }
+            }
+            if (newest != last) {
+                _cursors.put(data.getMetricId(), newest);
+            }
+        }
+
+        if (_cursorFile != null) {
+            save();
+        }
+        return response;
+    }
+
+    /**
+     * @param metricId The id of the metric.
+     * @return The timestamp of the last data point returned for the metric,
+     * or null if no data has been returned yet.
+     */
+    public synchronized Long getCursor(int metricId) {
+        return _cursors.get(metricId);
+    }
+
+    /**
+     * Forget all cursors so the next poll starts from the configured look
+     * back.  The cursor file, if any, is updated on the next successful poll.
+     */
+    public synchronized void reset() {
+        _cursors.clear();
+    }
+
+    private void load() throws IOException {
+        Properties props = new Properties();
+        InputStream is = new FileInputStream(_cursorFile);
+        try {
+            props.load(is);
+        } finally {
+            is.close();
+        }
+
+        for (String key : props.stringPropertyNames()) {
+            try {
+                _cursors.put(Integer.valueOf(key),
+                             Long.valueOf(props.getProperty(key)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid cursor '" + key + "' in " +
+                                      _cursorFile);
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<Integer,Long> e : _cursors.entrySet()) {
+            props.setProperty(e.getKey().toString(), e.getValue().toString());
+        }
+
+        // Write to a temporary file first so a failed write never leaves a
+        // truncated cursor file behind.
+        File tmp = new File(_cursorFile.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            props.store(os, "HQApi metric data cursors");
+        } finally {
+            os.close();
+        }
+
+        if (!tmp.renameTo(_cursorFile)) {
+            _cursorFile.delete();
+            if (!tmp.renameTo(_cursorFile)) {
+                throw new IOException("Unable to write " + _cursorFile);
+            }
+        }
+    }
+}
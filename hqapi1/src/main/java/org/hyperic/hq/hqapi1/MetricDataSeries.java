@@ -0,0 +1,347 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The data for a single {@link org.hyperic.hq.hqapi1.types.Metric} held in
+ * primitive arrays.  This is the columnar equivalent of
+ * {@link org.hyperic.hq.hqapi1.types.MetricData} and avoids an object per
+ * {@link org.hyperic.hq.hqapi1.types.DataPoint} for large queries.
+ * <br><br>
+ * Data points are expected in ascending timestamp order, as returned by the
+ * HQ server.  The aggregate methods work directly on the arrays and return
+ * NaN when there are no data points in the requested range.
+ */
+public class MetricDataSeries {
+
+    private final int _resourceId;
+    private final String _resourceName;
+    private final int _metricId;
+    private final String _metricName;
+    private final long[] _timestamps;
+    private final double[] _values;
+
+    /**
+     * @param resourceId The id of the Resource the Metric belongs to.
+     * @param resourceName The name of the Resource the Metric belongs to.
+     * @param metricId The id of the Metric.
+     * @param metricName The name of the Metric.
+     * @param timestamps The timestamps of the data points, in epoch-millis.
+     * @param values The values of the data points.  Must be the same length
+     * as timestamps.
+     */
+    public MetricDataSeries(int resourceId, String resourceName,
+                            int metricId, String metricName,
+                            long[] timestamps, double[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("Got " + timestamps.length +
+                                               " timestamps but " +
+                                               values.length + " values");
+        }
+        _resourceId = resourceId;
+        _resourceName = resourceName;
+        _metricId = metricId;
+        _metricName = metricName;
+        _timestamps = timestamps;
+        _values = values;
+    }
+
+    /**
+     * Convert a {@link org.hyperic.hq.hqapi1.types.MetricData} to a
+     * MetricDataSeries.
+     *
+     * @param data The MetricData to convert.
+     * @return A MetricDataSeries holding the same data points.
+     */
+    public static MetricDataSeries fromMetricData(MetricData data) {
+        List<DataPoint> points = data.getDataPoint();
+        long[] timestamps = new long[points.size()];
+        double[] values = new double[points.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            DataPoint p = points.get(i);
+            timestamps[i] = p.getTimestamp();
+            values[i] = p.getValue();
+        }
+        return new MetricDataSeries(data.getResourceId(), data.getResourceName(),
+                                    data.getMetricId(), data.getMetricName(),
+                                    timestamps, values);
+    }
+
+    public int getResourceId() {
+        return _resourceId;
+    }
+
+    public String getResourceName() {
+        return _resourceName;
+    }
+
+    public int getMetricId() {
+        return _metricId;
+    }
+
+    public String getMetricName() {
+        return _metricName;
+    }
+
+    /**
+     * @return The number of data points in this series.
+     */
+    public int size() {
+        return _timestamps.length;
+    }
+
+    public long getTimestamp(int i) {
+        return _timestamps[i];
+    }
+
+    public double getValue(int i) {
+        return _values[i];
+    }
+
+    /**
+     * @return The timestamps of the data points.  The returned array is
+     * not copied and must not be modified.
+     */
+    public long[] getTimestamps() {
+        return _timestamps;
+    }
+
+    /**
+     * @return The values of the data points.  The returned array is not
+     * copied and must not be modified.
+     */
+    public double[] getValues() {
+        return _values;
+    }
+
+    /**
+     * Find the first data point at or after the given time.
+     *
+     * @param timestamp The time, in epoch-millis.
+     * @return The index of the first data point with a timestamp greater than
+     * or equal to the given time, or {@link #size()} if there is none.
+     */
+    public int indexOf(long timestamp) {
+        int low = 0;
+        int high = _timestamps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public double getMin() {
+        return min(0, _values.length);
+    }
+
+    public double getMax() {
+        return max(0, _values.length);
+    }
+
+    public double getAverage() {
+        return avg(0, _values.length);
+    }
+
+    /**
+     * @param percentile The percentile to compute, between 0 and 100.
+     * @return The value at the given percentile, using the nearest rank.
+     */
+    public double getPercentile(double percentile) {
+        return percentile(0, _values.length, percentile);
+    }
+
+    /**
+     * @param start The start of the range, inclusive, in epoch-millis.
+     * @param end The end of the range, exclusive, in epoch-millis.
+     * @return The lowest value in the given time range.
+     */
+    public double getMin(long start, long end) {
+        return min(indexOf(start), indexOf(end));
+    }
+
+    /**
+     * @param start The start of the range, inclusive, in epoch-millis.
+     * @param end The end of the range, exclusive, in epoch-millis.
+     * @return The highest value in the given time range.
+     */
+    public double getMax(long start, long end) {
+        return max(indexOf(start), indexOf(end));
+    }
+
+    /**
+     * @param start The start of the range, inclusive, in epoch-millis.
+     * @param end The end of the range, exclusive, in epoch-millis.
+     * @return The mean of the values in the given time range.
+     */
+    public double getAverage(long start, long end) {
+        return avg(indexOf(start), indexOf(end));
+    }
+
+    /**
+     * @param start The start of the range, inclusive, in epoch-millis.
+     * @param end The end of the range, exclusive, in epoch-millis.
+     * @param percentile The percentile to compute, between 0 and 100.
+     * @return The value at the given percentile in the given time range,
+     * using the nearest rank.
+     */
+    public double getPercentile(long start, long end, double percentile) {
+        return percentile(indexOf(start), indexOf(end), percentile);
+    }
+
+    /**
+     * Combine the data points into fixed windows.  Windows are aligned to
+     * multiples of the interval and only windows containing data are
+     * returned, each with the start time of the window as its timestamp.
+     *
+     * @param interval The window size, in milliseconds.
+     * @param aggregation The function used to combine each window.
+     * @return A new series with one data point per window.
+     */
+    public MetricDataSeries rollup(long interval, Aggregation aggregation) {
+        return rollup(interval, aggregation, 0);
+    }
+
+    /**
+     * Combine the data points into fixed windows using the value at the
+     * given percentile of each window.
+     *
+     * @param interval The window size, in milliseconds.
+     * @param percentile The percentile to compute, between 0 and 100.
+     * @return A new series with one data point per window.
+     * @see #rollup(long, Aggregation)
+     */
+    public MetricDataSeries rollupPercentile(long interval, double percentile) {
+        return rollup(interval, null, percentile);
+    }
+
+    private MetricDataSeries rollup(long interval, Aggregation aggregation,
+                                    double percentile) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be > 0");
+        }
+
+        long[] timestamps = new long[_timestamps.length];
+        double[] values = new double[_values.length];
+        int size = 0;
+
+        int from = 0;
+        while (from < _timestamps.length) {
+            long window = _timestamps[from] - (_timestamps[from] % interval);
+            int to = indexOf(window + interval);
+
+            timestamps[size] = window;
+            if (aggregation == null) {
+                values[size] = percentile(from, to, percentile);
+            } else {
+                switch (aggregation) {
+                    case MIN:
+                        values[size] = min(from, to);
+                        break;
+                    case MAX:
+                        values[size] = max(from, to);
+                        break;
+                    case AVG:
+                        values[size] = avg(from, to);
+                        break;
+                    case LAST:
+                        values[size] = _values[to - 1];
+                        break;
+                }
+            }
+            size++;
+            from = to;
+        }
+
+        return new MetricDataSeries(_resourceId, _resourceName, _metricId,
+                                    _metricName,
+                                    Arrays.copyOf(timestamps, size),
+                                    Arrays.copyOf(values, size));
+    }
+
+    private double min(int from, int to) {
+        if (from >= to) {
+            return Double.NaN;
+        }
+        double min = _values[from];
+        for (int i = from + 1; i < to; i++) {
+            if (_values[i] < min) {
+                min = _values[i];
+            }
+        }
+        return min;
+    }
+
+    private double max(int from, int to) {
+        if (from >= to) {
+            return Double.NaN;
+        }
+        double max = _values[from];
+        for (int i = from + 1; i < to; i++) {
+            if (_values[i] > max) {
+                max = _values[i];
+            }
+        }
+        return max;
+    }
+
+    private double avg(int from, int to) {
+        if (from >= to) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += _values[i];
+        }
+        return sum / (to - from);
+    }
+
+    private double percentile(int from, int to, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (from >= to) {
+            return Double.NaN;
+        }
+        double[] sorted = Arrays.copyOfRange(_values, from, to);
+        Arrays.sort(sorted);
+        int rank = (int)Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+}
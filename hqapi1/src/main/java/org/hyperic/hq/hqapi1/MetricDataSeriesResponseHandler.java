@@ -0,0 +1,193 @@
+/* Copyright 2009 SpringSource Inc. All Rights Reserved. */
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.ServiceError;
+
+/**
+ * Implementation of {@link ResponseHandler} that decodes metric data
+ * encoded with {@link MetricDataFormat} into a
+ * {@link MetricDataSeriesResponse}.
+ * <br><br>
+ * Failures, and servers that do not support the binary format, return XML.
+ * XML responses are parsed with StAX directly into the same primitive
+ * arrays, without creating a {@link org.hyperic.hq.hqapi1.types.DataPoint}
+ * per value, so callers see the same result either way.
+ */
+public class MetricDataSeriesResponseHandler
+    implements ResponseHandler<MetricDataSeriesResponse> {
+
+    private static Log _log = LogFactory.getLog(MetricDataSeriesResponseHandler.class);
+
+    private static final XMLInputFactory _inputFactory = XMLInputFactory.newInstance();
+
+    private static final String ELEMENT_STATUS = "Status";
+    private static final String ELEMENT_ERROR = "Error";
+    private static final String ELEMENT_METRIC_DATA = "MetricData";
+    private static final String ELEMENT_DATA_POINT = "DataPoint";
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final XmlResponseHandler<MetricDataSeriesResponse> _xmlHandler =
+            new XmlResponseHandler<MetricDataSeriesResponse>(MetricDataSeriesResponse.class);
+
+    public MetricDataSeriesResponse getErrorResponse(ServiceError error)
+        throws IOException
+    {
+        return _xmlHandler.getErrorResponse(error);
+    }
+
+    public MetricDataSeriesResponse handleResponse(HttpResponse response)
+        throws IOException
+    {
+        if (response.getStatusLine().getStatusCode() != 200) {
+            return _xmlHandler.handleResponse(response);
+        }
+
+        InputStream is = response.getEntity().getContent();
+        Header contentType = response.getEntity().getContentType();
+        try {
+            if (contentType != null &&
+                contentType.getValue().startsWith(MetricDataFormat.CONTENT_TYPE)) {
+                MetricDataSeriesResponse result = new MetricDataSeriesResponse();
+                result.getMetricDataSeries().addAll(MetricDataFormat.read(is));
+                result.setStatus(ResponseStatus.SUCCESS);
+                return result;
+            }
+            return parseXml(is);
+        } catch (XMLStreamException e) {
+            return getDeserializationError(e);
+        } catch (JAXBException e) {
+            return getDeserializationError(e);
+        } catch (IOException e) {
+            return getDeserializationError(e);
+        } catch (RuntimeException e) {
+            // Malformed numbers or missing attributes
+            return getDeserializationError(e);
+        }
+    }
+
+    private MetricDataSeriesResponse parseXml(InputStream is)
+        throws XMLStreamException, JAXBException
+    {
+        XMLStreamReader reader;
+        synchronized (_inputFactory) {
+            reader = _inputFactory.createXMLStreamReader(is);
+        }
+
+        try {
+            MetricDataSeriesResponse result = new MetricDataSeriesResponse();
+            Unmarshaller u = null;
+            int depth = 0;
+            int event = reader.getEventType();
+
+            while (true) {
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    // Only look at direct children of the response element.
+                    if (depth == 2) {
+                        String name = reader.getLocalName();
+                        if (ELEMENT_METRIC_DATA.equals(name)) {
+                            // Leaves the reader on the end element.
+                            result.getMetricDataSeries().add(readSeries(reader));
+                            depth--;
+                        } else if (ELEMENT_ERROR.equals(name)) {
+                            if (u == null) {
+                                u = XmlUtil.createUnmarshaller(ServiceError.class);
+                            }
+                            result.setError(u.unmarshal(reader, ServiceError.class).getValue());
+                            depth--;
+                            event = reader.getEventType();
+                            continue;
+                        } else if (ELEMENT_STATUS.equals(name)) {
+                            // Leaves the reader on the end element.
+                            result.setStatus(ResponseStatus.fromValue(reader.getElementText().trim()));
+                            depth--;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+
+                if (!reader.hasNext()) {
+                    break;
+                }
+                event = reader.next();
+            }
+            return result;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read a MetricData element into a series.  The reader must be on the
+     * start element and is left on the matching end element.
+     */
+    private MetricDataSeries readSeries(XMLStreamReader reader)
+        throws XMLStreamException
+    {
+        int resourceId = Integer.parseInt(reader.getAttributeValue(null, "resourceId"));
+        String resourceName = reader.getAttributeValue(null, "resourceName");
+        int metricId = Integer.parseInt(reader.getAttributeValue(null, "metricId"));
+        String metricName = reader.getAttributeValue(null, "metricName");
+
+        long[] timestamps = new long[INITIAL_CAPACITY];
+        double[] values = new double[INITIAL_CAPACITY];
+        int size = 0;
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (depth == 2 && ELEMENT_DATA_POINT.equals(reader.getLocalName())) {
+                    if (size == timestamps.length) {
+                        timestamps = Arrays.copyOf(timestamps, size * 2);
+                        values = Arrays.copyOf(values, size * 2);
+                    }
+                    timestamps[size] = Long.parseLong(reader.getAttributeValue(null, "timestamp"));
+                    values[size] = Double.parseDouble(reader.getAttributeValue(null, "value"));
+                    size++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+
+        if (size < timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size);
+            values = Arrays.copyOf(values, size);
+        }
+        return new MetricDataSeries(resourceId, resourceName, metricId,
+                                    metricName, timestamps, values);
+    }
+
+    private MetricDataSeriesResponse getDeserializationError(Exception e)
+        throws IOException
+    {
+        ServiceError error = new ServiceError();
+        error.setErrorCode("UnexpectedError");
+        error.setReasonText("Unable to deserialize result");
+        if (_log.isDebugEnabled()) {
+            _log.debug("Unable to deserialize result", e);
+        }
+        return getErrorResponse(error);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricTemplate;
+import org.hyperic.hq.hqapi1.types.MetricsResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resolves the id of the {@link org.hyperic.hq.hqapi1.types.Metric} for a
+ * {@link org.hyperic.hq.hqapi1.types.MetricTemplate} on a
+ * {@link org.hyperic.hq.hqapi1.types.Resource} without scanning the
+ * resource's metrics on every lookup.
+ * <br><br>
+ * The metrics of a resource are loaded with
+ * {@link MetricApi#getMetrics(org.hyperic.hq.hqapi1.types.Resource, boolean)}
+ * the first time the resource is looked up, or in bulk with
+ * {@link #warmUp(java.util.Collection)}, and kept until invalidated.  Metric
+ * ids never change for the life of a resource, so invalidation is only
+ * needed when resources are deleted or re-created.
+ * <br><br>
+ * This class is thread safe.  Concurrent lookups of the same resource that
+ * is not loaded yet share a single request.
+ */
+public class MetricIndex {
+
+    /**
+     * Returned by the lookups if the resource has no such metric.
+     */
+    public static final int NOT_FOUND = -1;
+
+    private final MetricApi _api;
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    private final SingleFlight _loads = new SingleFlight();
+
+    // (resource id, template id) -> metric id
+    private final LongIntMap _metrics = new LongIntMap();
+    // resource id -> template ids of the resource's metrics, for invalidation
+    private final Map<Integer,int[]> _resources = new HashMap<Integer,int[]>();
+    // alias -> ids of the templates with that alias, one per prototype
+    private final Map<String,int[]> _aliases = new HashMap<String,int[]>();
+
+    /**
+     * @param api The {@link MetricApi} used to load the metrics of
+     * resources.
+     */
+    public MetricIndex(MetricApi api) {
+        _api = api;
+    }
+
+    /**
+     * @param resourceId The id of the resource.
+     * @param templateId The id of the metric template.
+     * @return The id of the metric, or {@link #NOT_FOUND} if the resource
+     * does not exist or has no metric for the template.
+     *
+     * @throws IOException If a network error occurs while loading the
+     * metrics of the resource, or the HQ server reports an error other than
+     * the resource not being found.
+     */
+    public int getMetricId(int resourceId, int templateId) throws IOException {
+        if (resourceId <= 0) {
+            return NOT_FOUND;
+        }
+        _lock.readLock().lock();
+        try {
+            if (_resources.containsKey(resourceId)) {
+                return _metrics.get(key(resourceId, templateId), NOT_FOUND);
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        if (!load(resourceId)) {
+            return NOT_FOUND;
+        }
+        _lock.readLock().lock();
+        try {
+            return _metrics.get(key(resourceId, templateId), NOT_FOUND);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param resourceId The id of the resource.
+     * @param alias The alias of the metric template, for example
+     * 'Availability'.
+     * @return The id of the metric, or {@link #NOT_FOUND} if the resource
+     * does not exist or has no metric with the alias.
+     *
+     * @throws IOException If a network error occurs while loading the
+     * metrics of the resource, or the HQ server reports an error other than
+     * the resource not being found.
+     */
+    public int getMetricId(int resourceId, String alias) throws IOException {
+        if (resourceId <= 0) {
+            return NOT_FOUND;
+        }
+        _lock.readLock().lock();
+        try {
+            if (_resources.containsKey(resourceId)) {
+                return getByAlias(resourceId, alias);
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        if (!load(resourceId)) {
+            return NOT_FOUND;
+        }
+        _lock.readLock().lock();
+        try {
+            return getByAlias(resourceId, alias);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Load the metrics of all given resources that are not loaded yet,
+     * several resources at a time.  Resources that do not exist are
+     * skipped.
+     *
+     * @param resources The resources to load.
+     *
+     * @throws IOException If loading any of the resources failed.  The
+     * other resources are still loaded.
+     */
+    public void warmUp(Collection<Resource> resources) throws IOException {
+        List<Callable<Boolean>> loads = new ArrayList<Callable<Boolean>>();
+        _lock.readLock().lock();
+        try {
+            for (final Resource r : resources) {
+                if (!_resources.containsKey(r.getId())) {
+                    loads.add(new Callable<Boolean>() {
+                        public Boolean call() throws IOException {
+                            return load(r.getId());
+                        }
+                    });
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        List<Boolean> loaded = new ArrayList<Boolean>(loads.size());
+        List<IOException> errors = new ArrayList<IOException>(loads.size());
+        BulkFetcher.executeAll(loads, BulkFetcher.DEFAULT_PARALLELISM,
+                               loaded, errors);
+        for (IOException e : errors) {
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drop the metrics of the given resource, they are loaded again on the
+     * next lookup.
+     *
+     * @param resourceId The id of the resource.
+     */
+    public void invalidate(int resourceId) {
+        _lock.writeLock().lock();
+        try {
+            int[] templateIds = _resources.remove(resourceId);
+            if (templateIds != null) {
+                for (int templateId : templateIds) {
+                    _metrics.remove(key(resourceId, templateId));
+                }
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the metrics of all resources.
+     */
+    public void invalidateAll() {
+        _lock.writeLock().lock();
+        try {
+            _metrics.clear();
+            _resources.clear();
+            _aliases.clear();
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of resources with loaded metrics.
+     */
+    public int size() {
+        _lock.readLock().lock();
+        try {
+            return _resources.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    private int getByAlias(int resourceId, String alias) {
+        int[] templateIds = _aliases.get(alias);
+        if (templateIds != null) {
+            for (int templateId : templateIds) {
+                int id = _metrics.get(key(resourceId, templateId), NOT_FOUND);
+                if (id != NOT_FOUND) {
+                    return id;
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Load the metrics of the given resource.
+     *
+     * @return false if the resource does not exist.
+     */
+    private boolean load(final int resourceId) throws IOException {
+        return _loads.execute(Integer.toString(resourceId), new Callable<Boolean>() {
+            public Boolean call() throws IOException {
+                Resource r = new Resource();
+                r.setId(resourceId);
+                MetricsResponse response = _api.getMetrics(r, false);
+                if (response.getStatus() != ResponseStatus.SUCCESS) {
+                    if (ErrorCode.OBJECT_NOT_FOUND.getErrorCode().equals(
+                            response.getError().getErrorCode())) {
+                        return Boolean.FALSE;
+                    }
+                    throw new IOException("Unable to load metrics for resource " +
+                                          resourceId + ": " +
+                                          response.getError().getReasonText());
+                }
+                add(resourceId, response.getMetric());
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    private void add(int resourceId, List<Metric> metrics) {
+        int[] templateIds = new int[metrics.size()];
+        _lock.writeLock().lock();
+        try {
+            for (int i = 0; i < templateIds.length; i++) {
+                Metric m = metrics.get(i);
+                MetricTemplate t = m.getMetricTemplate();
+                templateIds[i] = t.getId();
+                _metrics.put(key(resourceId, t.getId()), m.getId());
+                addAlias(t.getAlias(), t.getId());
+            }
+            _resources.put(resourceId, templateIds);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    private void addAlias(String alias, int templateId) {
+        int[] templateIds = _aliases.get(alias);
+        if (templateIds == null) {
+            _aliases.put(alias, new int[] { templateId });
+            return;
+        }
+        for (int id : templateIds) {
+            if (id == templateId) {
+                return;
+            }
+        }
+        int[] grown = new int[templateIds.length + 1];
+        System.arraycopy(templateIds, 0, grown, 0, templateIds.length);
+        grown[templateIds.length] = templateId;
+        _aliases.put(alias, grown);
+    }
+
+    private static long key(int resourceId, int templateId) {
+        return ((long)resourceId << 32) | (templateId & 0xffffffffL);
+    }
+}
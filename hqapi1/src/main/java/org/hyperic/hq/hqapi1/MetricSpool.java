@@ -0,0 +1,614 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricDataPoints;
+import org.hyperic.hq.hqapi1.types.MetricsDataPointsRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, memory mapped spool of metric data batches that could not
+ * be sent to the HQ server.  Used by {@link MetricWriter} to hold on to data
+ * while the server is unreachable.
+ * <br><br>
+ * Batches are written to fixed size segment files in the spool directory
+ * and read back in the order they were appended.  Each segment keeps the
+ * offset of the next unread batch in its header, so a spool reopened after
+ * a restart resumes with the first batch that was not removed.  Each batch
+ * is checksummed and a partially written batch at the end of the last
+ * segment is discarded on open.
+ * <br><br>
+ * Disk usage is capped by the maximum spool size.  Once a new segment would
+ * exceed it the oldest segment is deleted, dropping any unread batches in
+ * it.  The number of data points dropped this way is available from
+ * {@link #getEvictedCount()}.
+ * <br><br>
+ * A batch the HQ server keeps rejecting can be moved out of the way with
+ * {@link #reject()}.  Rejected batches are appended to a dead letter spool
+ * in the {@link #DEAD_LETTER_DIR} subdirectory, which can be opened as a
+ * MetricSpool of its own to inspect or resend them.
+ * <br><br>
+ * Writes are flushed to disk when a segment is full and on {@link #close()};
+ * data in the current segment survives a crash of the process but not
+ * necessarily of the operating system.  This class is thread safe.
+ */
+public class MetricSpool implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final String DEAD_LETTER_DIR = "dead";
+
+    private static final int MAGIC = 0x48514d53; // 'HQMS'
+
+    // Segment header: magic, offset of the next unread record
+    private static final int HEADER_SIZE = 8;
+
+    // Record header: payload length, number of data points, CRC32 of payload
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".dat";
+
+    private final File _dir;
+    private final int _segmentSize;
+    private final int _maxSegments;
+    private final LinkedList<Segment> _segments = new LinkedList<Segment>();
+    private final LinkedList<File> _undeleted = new LinkedList<File>();
+    private long _nextSeq = 0;
+    private long _evicted = 0;
+    private long _rejected = 0;
+    private MetricSpool _deadLetters;
+    private boolean _closed = false;
+
+    // Position of the batch last returned by peek(), so remove() can tell
+    // whether it was evicted in the meantime.
+    private long _peekSeq = -1;
+    private int _peekPos;
+
+    /**
+     * Open a spool with the default segment size.
+     *
+     * @param dir The directory holding the spool segments.  It is created if
+     * it does not exist.
+     * @param maxSize The maximum size of the spool on disk, in bytes.
+     *
+     * @throws IOException If the spool directory cannot be created or an
+     * existing segment cannot be read.
+     */
+    public MetricSpool(File dir, long maxSize) throws IOException {
+        this(dir, maxSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open a spool.
+     *
+     * @param dir The directory holding the spool segments.  It is created if
+     * it does not exist.
+     * @param maxSize The maximum size of the spool on disk, in bytes.  At
+     * least two segments are always kept.
+     * @param segmentSize The size of each segment file, in bytes.  Batches
+     * larger than this are written to a segment of their own.
+     *
+     * @throws IOException If the spool directory cannot be created or an
+     * existing segment cannot be read.
+     */
+    public MetricSpool(File dir, long maxSize, int segmentSize)
+        throws IOException
+    {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " +
+                                               segmentSize);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + dir);
+        }
+        _dir = dir;
+        _segmentSize = segmentSize;
+        _maxSegments = (int)Math.max(2, maxSize / segmentSize);
+
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                String name = f.getName();
+                return f.isFile() && name.startsWith(PREFIX) &&
+                       name.endsWith(SUFFIX);
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long s1 = getSequence(f1);
+                long s2 = getSequence(f2);
+                return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+            }
+        });
+
+        for (File f : files) {
+            if (f.length() < HEADER_SIZE) {
+                // Created but never initialized
+                f.delete();
+                continue;
+            }
+            Segment s = new Segment(f, getSequence(f));
+            _segments.add(s);
+            _nextSeq = s.seq + 1;
+        }
+
+        if (!_segments.isEmpty()) {
+            // Find the end of the data in the last segment, dropping any
+            // partially written record.
+            Segment tail = _segments.getLast();
+            ByteBuffer buf = tail.map(0);
+            int pos = tail.getReadPosition();
+            int end;
+            while ((end = recordEnd(buf, pos)) > 0) {
+                pos = end;
+            }
+            tail.writePos = pos;
+            if (pos + RECORD_HEADER_SIZE <= buf.capacity()) {
+                buf.putInt(pos, 0);
+            }
+        }
+    }
+
+    /**
+     * Append a batch to the end of the spool.
+     *
+     * @param request The batch to append.
+     *
+     * @throws IOException If a new segment cannot be created.
+     */
+    public synchronized void append(MetricsDataPointsRequest request)
+        throws IOException
+    {
+        checkOpen();
+
+        byte[] payload = encode(request);
+        int needed = RECORD_HEADER_SIZE + payload.length;
+
+        Segment tail = _segments.isEmpty() ? null : _segments.getLast();
+        if (tail == null || tail.writePos + needed > tail.map(0).capacity()) {
+            if (tail != null) {
+                tail.map(0).force();
+            }
+            tail = createSegment(Math.max(_segmentSize, HEADER_SIZE + needed));
+            _segments.add(tail);
+            evict();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buf = tail.map(0).duplicate();
+        buf.position(tail.writePos);
+        buf.putInt(payload.length);
+        buf.putInt(countPoints(request));
+        buf.putLong(crc.getValue());
+        buf.put(payload);
+        tail.writePos += needed;
+        if (tail.headEnd < 0) {
+            // The record appended is the next one to read
+            tail.headEnd = 0;
+        }
+    }
+
+    /**
+     * @return The oldest batch in the spool, or null if the spool is empty.
+     * The batch stays in the spool until {@link #remove()} or
+     * {@link #reject()} is called.
+     *
+     * @throws IOException If a segment cannot be read.
+     */
+    public synchronized MetricsDataPointsRequest peek() throws IOException {
+        checkOpen();
+        Segment head = advance();
+        if (head == null) {
+            _peekSeq = -1;
+            return null;
+        }
+        _peekSeq = head.seq;
+        _peekPos = head.getReadPosition();
+        return decode(readPayload(head));
+    }
+
+    /**
+     * Remove the batch returned by the last call to {@link #peek()}.
+     *
+     * @return true if the batch was removed, false if it was evicted to make
+     * room for new batches since it was peeked.
+     *
+     * @throws IOException If a segment cannot be read.
+     * @throws IllegalStateException If no batch was peeked.
+     */
+    public synchronized boolean remove() throws IOException {
+        checkOpen();
+        Segment head = getPeeked();
+        if (head == null) {
+            return false;
+        }
+        head.setReadPosition(head.getHeadEnd());
+        return true;
+    }
+
+    /**
+     * Move the batch returned by the last call to {@link #peek()} to the
+     * dead letter spool.
+     *
+     * @return true if the batch was moved, false if it was evicted to make
+     * room for new batches since it was peeked.
+     *
+     * @throws IOException If the dead letter spool cannot be written.
+     * @throws IllegalStateException If no batch was peeked.
+     */
+    public synchronized boolean reject() throws IOException {
+        checkOpen();
+        Segment head = getPeeked();
+        if (head == null) {
+            return false;
+        }
+        if (_deadLetters == null) {
+            _deadLetters = new MetricSpool(new File(_dir, DEAD_LETTER_DIR),
+                                           (long)_maxSegments * _segmentSize,
+                                           _segmentSize);
+        }
+        _deadLetters.append(decode(readPayload(head)));
+        _rejected += head.buf.getInt(head.getReadPosition() + 4);
+        head.setReadPosition(head.getHeadEnd());
+        return true;
+    }
+
+    /**
+     * @return true if there are no batches left in the spool.
+     *
+     * @throws IOException If a segment cannot be read.
+     */
+    public synchronized boolean isEmpty() throws IOException {
+        checkOpen();
+        return advance() == null;
+    }
+
+    /**
+     * @return The number of data points dropped because the spool was full.
+     */
+    public synchronized long getEvictedCount() {
+        return _evicted;
+    }
+
+    /**
+     * @return The number of data points moved to the dead letter spool.
+     */
+    public synchronized long getRejectedCount() {
+        return _rejected;
+    }
+
+    /**
+     * @return The directory of the dead letter spool.
+     */
+    public File getDeadLetterDirectory() {
+        return new File(_dir, DEAD_LETTER_DIR);
+    }
+
+    /**
+     * Flush pending writes to disk and release the segments.
+     */
+    public synchronized void close() {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        for (Segment s : _segments) {
+            if (s.buf != null) {
+                s.buf.force();
+                s.release();
+            }
+        }
+        _segments.clear();
+        if (_deadLetters != null) {
+            _deadLetters.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (_closed) {
+            throw new IllegalStateException("MetricSpool is closed");
+        }
+    }
+
+    /**
+     * @return The segment holding the batch last returned by peek(), or null
+     * if the batch has been evicted.
+     */
+    private Segment getPeeked() throws IOException {
+        if (_peekSeq < 0) {
+            throw new IllegalStateException("No batch has been peeked");
+        }
+        long seq = _peekSeq;
+        _peekSeq = -1;
+        Segment head = advance();
+        if (head == null || head.seq != seq || head.getReadPosition() != _peekPos) {
+            return null;
+        }
+        return head;
+    }
+
+    private static byte[] readPayload(Segment head) throws IOException {
+        ByteBuffer buf = head.map(0).duplicate();
+        int pos = head.getReadPosition();
+        byte[] payload = new byte[buf.getInt(pos)];
+        buf.position(pos + RECORD_HEADER_SIZE);
+        buf.get(payload);
+        return payload;
+    }
+
+    /**
+     * Skip over fully read segments, deleting them.
+     *
+     * @return The segment holding the next unread record, or null if there
+     * are no unread records.
+     */
+    private Segment advance() throws IOException {
+        retryDeletes();
+        while (!_segments.isEmpty()) {
+            Segment head = _segments.getFirst();
+            if (head.getHeadEnd() > 0) {
+                return head;
+            }
+            if (head == _segments.getLast()) {
+                // Caught up with the writer
+                return null;
+            }
+            _segments.removeFirst();
+            delete(head);
+        }
+        return null;
+    }
+
+    private void delete(Segment s) {
+        if (!s.delete()) {
+            _undeleted.add(s.file);
+        }
+    }
+
+    /**
+     * Delete the files of removed segments that could not be deleted
+     * before, their mappings may have been garbage collected since.
+     */
+    private void retryDeletes() {
+        for (Iterator<File> i = _undeleted.iterator(); i.hasNext(); ) {
+            File f = i.next();
+            if (f.delete() || !f.exists()) {
+                i.remove();
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        while (_segments.size() > _maxSegments) {
+            Segment head = _segments.removeFirst();
+            ByteBuffer buf = head.map(0);
+            int pos = head.getReadPosition();
+            int end;
+            while ((end = recordEnd(buf, pos)) > 0) {
+                // A peeked batch is accounted for by the caller of peek()
+                if (head.seq != _peekSeq || pos != _peekPos) {
+                    _evicted += buf.getInt(pos + 4);
+                }
+                pos = end;
+            }
+            // Should the file outlive this process, it is opened as fully
+            // read rather than replayed.
+            head.setReadPosition(pos);
+            delete(head);
+        }
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        long seq = _nextSeq++;
+        File f = new File(_dir, PREFIX + String.format("%016d", seq) + SUFFIX);
+        Segment s = new Segment(f, seq);
+        MappedByteBuffer buf = s.map(size);
+        buf.putInt(0, MAGIC);
+        s.setReadPosition(HEADER_SIZE);
+        s.writePos = HEADER_SIZE;
+        return s;
+    }
+
+    /**
+     * @return The offset following the record at the given position, or -1
+     * if there is no complete, valid record there.
+     */
+    private static int recordEnd(ByteBuffer buf, int pos) {
+        if (pos + RECORD_HEADER_SIZE > buf.capacity()) {
+            return -1;
+        }
+        int length = buf.getInt(pos);
+        if (length <= 0 || length > buf.capacity() - pos - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+
+        byte[] payload = new byte[length];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos + RECORD_HEADER_SIZE);
+        dup.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != buf.getLong(pos + 8)) {
+            return -1;
+        }
+        return pos + RECORD_HEADER_SIZE + length;
+    }
+
+    private static long getSequence(File f) {
+        String name = f.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(),
+                                                 name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static int countPoints(MetricsDataPointsRequest request) {
+        int count = 0;
+        for (MetricDataPoints points : request.getMetricDataPoints()) {
+            count += points.getDataPoint().size();
+        }
+        return count;
+    }
+
+    private static byte[] encode(MetricsDataPointsRequest request)
+        throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(request.getMetricDataPoints().size());
+        for (MetricDataPoints points : request.getMetricDataPoints()) {
+            out.writeInt(points.getMetricId());
+            out.writeInt(points.getDataPoint().size());
+            for (DataPoint dp : points.getDataPoint()) {
+                out.writeLong(dp.getTimestamp());
+                out.writeDouble(dp.getValue());
+            }
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static MetricsDataPointsRequest decode(byte[] payload)
+        throws IOException
+    {
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(payload));
+        MetricsDataPointsRequest request = new MetricsDataPointsRequest();
+        int numMetrics = in.readInt();
+        for (int i = 0; i < numMetrics; i++) {
+            MetricDataPoints points = new MetricDataPoints();
+            points.setMetricId(in.readInt());
+            int numPoints = in.readInt();
+            for (int j = 0; j < numPoints; j++) {
+                DataPoint dp = new DataPoint();
+                dp.setTimestamp(in.readLong());
+                dp.setValue(in.readDouble());
+                points.getDataPoint().add(dp);
+            }
+            request.getMetricDataPoints().add(points);
+        }
+        return request;
+    }
+
+    private static class Segment {
+        final File file;
+        final long seq;
+        MappedByteBuffer buf;
+        int writePos;
+        // Offset following the record at the read position, 0 if not yet
+        // known or -1 if there is no record there.
+        int headEnd;
+
+        Segment(File file, long seq) {
+            this.file = file;
+            this.seq = seq;
+        }
+
+        /**
+         * Map the segment file, creating it with the given size if needed.
+         */
+        MappedByteBuffer map(int size) throws IOException {
+            if (buf == null) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    long length = Math.max(size, raf.length());
+                    buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                               0, length);
+                } finally {
+                    raf.close();
+                }
+                if (size == 0 && (buf.capacity() < HEADER_SIZE ||
+                                  buf.getInt(0) != MAGIC)) {
+                    buf = null;
+                    throw new IOException("Invalid spool segment " + file);
+                }
+            }
+            return buf;
+        }
+
+        int getReadPosition() {
+            return buf.getInt(4);
+        }
+
+        void setReadPosition(int pos) {
+            buf.putInt(4, pos);
+            headEnd = 0;
+        }
+
+        /**
+         * @return The offset following the record at the read position, or
+         * -1 if there is no complete, valid record there.
+         */
+        int getHeadEnd() throws IOException {
+            if (headEnd == 0) {
+                headEnd = recordEnd(map(0), getReadPosition());
+            }
+            return headEnd;
+        }
+
+        /**
+         * Drop the mapping.  It is released once the buffer is garbage
+         * collected, the buffer must not be used afterwards.
+         */
+        void release() {
+            buf = null;
+        }
+
+        /**
+         * @return false if the file could not be deleted yet, which happens
+         * on platforms that do not delete mapped files until the mapping is
+         * released.
+         */
+        boolean delete() {
+            release();
+            return file.delete() || !file.exists();
+        }
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.Metric;
+import org.hyperic.hq.hqapi1.types.MetricDataPoints;
+import org.hyperic.hq.hqapi1.types.MetricsDataPointsRequest;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers {@link org.hyperic.hq.hqapi1.types.DataPoint}s across
+ * {@link org.hyperic.hq.hqapi1.types.Metric}s and inserts them in batches
+ * through {@link MetricDataApi#addData(java.util.Map)}.
+ * <br><br>
+ * A batch is sent once the buffer holds the configured number of data
+ * points, or the flush interval elapses.  Batches are sent in the background
+ * with a bounded number of batches in flight; once that limit is reached
+ * calls to write block until a batch completes.  The outcome of each batch
+ * is reported to the optional {@link ApiCallback}.
+ * <br><br>
+ * If a {@link MetricSpool} is given, batches that cannot be delivered
+ * because the HQ server is unreachable or failing are appended to the spool
+ * instead of being dropped.  While the spool holds data new batches are
+ * spooled behind it, and the spool is replayed in order on every flush
+ * interval until the server accepts data again.  Spooled batches are
+ * reported to the callback once they are replayed.  A spooled batch that
+ * the server keeps failing with an unexpected error is moved to the spool's
+ * dead letters after a number of attempts, so it does not hold back the
+ * batches behind it.
+ * <br><br>
+ * The callback is notified after the batch's slot is released, so it may
+ * write to or flush the writer.
+ * <br><br>
+ * This class is thread safe.
+ */
+public class MetricWriter implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final int DEFAULT_MAX_PENDING_BATCHES = 4;
+    public static final int DEFAULT_MAX_REPLAY_ATTEMPTS = 10;
+
+    private static Log _log = LogFactory.getLog(MetricWriter.class);
+
+    private static final AtomicInteger _writerNumber = new AtomicInteger(1);
+
+    private final MetricDataApi _api;
+    private final int _batchSize;
+    private final int _maxPendingBatches;
+    private final ApiCallback<StatusResponse> _callback;
+    private final MetricSpool _spool;
+    private final int _maxReplayAttempts;
+    private final AtomicBoolean _replaying = new AtomicBoolean(false);
+    private final Semaphore _pending;
+    private final ExecutorService _sender;
+    private final ScheduledExecutorService _timer;
+    private final AtomicLong _written = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+
+    // Failed attempts to replay the oldest spooled batch, only used by the
+    // replaying thread.
+    private int _replayAttempts = 0;
+
+    private Map<Integer,MetricDataPoints> _buffer =
+        new LinkedHashMap<Integer,MetricDataPoints>();
+    private int _size = 0;
+    private boolean _closed = false;
+
+    /**
+     * Create a writer using the default batch size, flush interval and
+     * number of pending batches.
+     *
+     * @param api The {@link MetricDataApi} to insert data through.
+     */
+    public MetricWriter(MetricDataApi api) {
+        this(api, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL,
+             DEFAULT_MAX_PENDING_BATCHES, null);
+    }
+
+    /**
+     * @param api The {@link MetricDataApi} to insert data through.
+     * @param batchSize The number of data points that triggers a batch.
+     * @param flushInterval The maximum time, in milliseconds, data points
+     * are buffered before being sent.
+     * @param maxPendingBatches The maximum number of batches in flight.
+     * @param callback The callback to notify as each batch completes, or null.
+     */
+    public MetricWriter(MetricDataApi api, int batchSize, long flushInterval,
+                        int maxPendingBatches,
+                        ApiCallback<StatusResponse> callback) {
+        this(api, batchSize, flushInterval, maxPendingBatches, callback, null);
+    }
+
+    /**
+     * @param api The {@link MetricDataApi} to insert data through.
+     * @param batchSize The number of data points that triggers a batch.
+     * @param flushInterval The maximum time, in milliseconds, data points
+     * are buffered before being sent.
+     * @param maxPendingBatches The maximum number of batches in flight.
+     * @param callback The callback to notify as each batch completes, or null.
+     * @param spool The spool holding batches that could not be delivered, or
+     * null to drop them.  The spool is not closed by {@link #close()}.
+     */
+    public MetricWriter(MetricDataApi api, int batchSize, long flushInterval,
+                        int maxPendingBatches,
+                        ApiCallback<StatusResponse> callback,
+                        MetricSpool spool) {
+        this(api, batchSize, flushInterval, maxPendingBatches, callback, spool,
+             DEFAULT_MAX_REPLAY_ATTEMPTS);
+    }
+
+    /**
+     * @param api The {@link MetricDataApi} to insert data through.
+     * @param batchSize The number of data points that triggers a batch.
+     * @param flushInterval The maximum time, in milliseconds, data points
+     * are buffered before being sent.
+     * @param maxPendingBatches The maximum number of batches in flight.
+     * @param callback The callback to notify as each batch completes, or null.
+     * @param spool The spool holding batches that could not be delivered, or
+     * null to drop them.  The spool is not closed by {@link #close()}.
+     * @param maxReplayAttempts The number of times a spooled batch failing
+     * with an unexpected error is replayed before it is moved to the spool's
+     * dead letters with {@link MetricSpool#reject()}.
+     */
+    public MetricWriter(MetricDataApi api, int batchSize, long flushInterval,
+                        int maxPendingBatches,
+                        ApiCallback<StatusResponse> callback,
+                        MetricSpool spool, int maxReplayAttempts) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be > 0");
+        }
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("Flush interval must be > 0");
+        }
+        if (maxPendingBatches < 1) {
+            throw new IllegalArgumentException("Max pending batches must be > 0");
+        }
+        if (maxReplayAttempts < 1) {
+            throw new IllegalArgumentException("Max replay attempts must be > 0");
+        }
+        _api = api;
+        _batchSize = batchSize;
+        _maxPendingBatches = maxPendingBatches;
+        _callback = callback;
+        _spool = spool;
+        _maxReplayAttempts = maxReplayAttempts;
+        // Fair, so flush() waiting for every permit is not starved by
+        // writers taking and returning single permits.
+        _pending = new Semaphore(maxPendingBatches, true);
+
+        ThreadFactory factory = new WriterThreadFactory();
+        // The number of batches sent at once is bounded by _pending.  Threads
+        // are not, a thread may still be notifying the callback or replaying
+        // the spool while the next batch is sent.
+        _sender = Executors.newCachedThreadPool(factory);
+        _timer = Executors.newSingleThreadScheduledExecutor(factory);
+        _timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    dispatch();
+                    if (_spool != null) {
+                        scheduleReplay();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    _log.warn("Unable to read metric spool", e);
+                } catch (RejectedExecutionException e) {
+                    // Closed while flushing
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffer a single data point.
+     *
+     * @param metric The {@link org.hyperic.hq.hqapi1.types.Metric} the data
+     * point belongs to.
+     * @param dp The {@link org.hyperic.hq.hqapi1.types.DataPoint} to insert.
+     *
+     * @throws InterruptedException If interrupted while waiting for a pending
+     * batch to complete.
+     */
+    public void write(Metric metric, DataPoint dp) throws InterruptedException {
+        write(metric, Collections.singletonList(dp));
+    }
+
+    /**
+     * Buffer a List of data points.
+     *
+     * @param metric The {@link org.hyperic.hq.hqapi1.types.Metric} the data
+     * points belong to.
+     * @param data The {@link org.hyperic.hq.hqapi1.types.DataPoint}s to insert.
+     *
+     * @throws InterruptedException If interrupted while waiting for a pending
+     * batch to complete.
+     */
+    public void write(Metric metric, List<DataPoint> data)
+        throws InterruptedException
+    {
+        boolean full;
+        synchronized (this) {
+            if (_closed) {
+                throw new IllegalStateException("MetricWriter is closed");
+            }
+
+            MetricDataPoints points = _buffer.get(metric.getId());
+            if (points == null) {
+                points = new MetricDataPoints();
+                points.setMetricId(metric.getId());
+                _buffer.put(metric.getId(), points);
+            }
+            points.getDataPoint().addAll(data);
+            _size += data.size();
+            full = _size >= _batchSize;
+        }
+
+        if (full) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Send any buffered data points and wait for all pending batches to
+     * complete.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        dispatch();
+        _pending.acquire(_maxPendingBatches);
+        _pending.release(_maxPendingBatches);
+    }
+
+    /**
+     * Flush any buffered data points and stop the background threads.  The
+     * underlying {@link MetricDataApi} is not closed.
+     *
+     * @throws IOException If interrupted while flushing.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+        }
+
+        _timer.shutdownNow();
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing metrics");
+        } finally {
+            _sender.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of data points successfully inserted.
+     */
+    public long getWrittenCount() {
+        return _written.get();
+    }
+
+    /**
+     * @return The number of data points that could not be inserted.
+     */
+    public long getFailedCount() {
+        return _failed.get();
+    }
+
+    private void dispatch() throws InterruptedException {
+        synchronized (this) {
+            if (_size == 0) {
+                return;
+            }
+        }
+
+        // Blocks the writing threads while the maximum number of batches
+        // are in flight.  The lock is not held while waiting, a batch
+        // completing may need it to notify the callback.
+        _pending.acquire();
+
+        final MetricsDataPointsRequest request = new MetricsDataPointsRequest();
+        final int size;
+        synchronized (this) {
+            if (_size == 0) {
+                // Sent by another thread while waiting
+                _pending.release();
+                return;
+            }
+            request.getMetricDataPoints().addAll(_buffer.values());
+            size = _size;
+            _buffer = new LinkedHashMap<Integer,MetricDataPoints>();
+            _size = 0;
+        }
+
+        try {
+            _sender.execute(new Runnable() {
+                public void run() {
+                    Runnable notification = null;
+                    try {
+                        notification = send(request, size);
+                    } finally {
+                        _pending.release();
+                    }
+                    if (notification != null) {
+                        notification.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Send a batch, spooling it if the server is unavailable.
+     *
+     * @return The callback notification for the outcome, or null.
+     */
+    private Runnable send(MetricsDataPointsRequest request, int size) {
+        StatusResponse response;
+        try {
+            if (_spool != null && !_spool.isEmpty()) {
+                // Keep batches in order behind the data already spooled
+                _spool.append(request);
+                return null;
+            }
+            response = _api.addData(request);
+        } catch (final Exception e) {
+            if (spool(request, e)) {
+                return null;
+            }
+            _failed.addAndGet(size);
+            if (_callback == null) {
+                return null;
+            }
+            return new Runnable() {
+                public void run() {
+                    _callback.failed(e);
+                }
+            };
+        }
+
+        if (isUnavailable(response) && spool(request, null)) {
+            return null;
+        }
+        return completed(response, size);
+    }
+
+    /**
+     * Count a completed batch.
+     *
+     * @return The callback notification for the batch, or null.
+     */
+    private Runnable completed(final StatusResponse response, int size) {
+        if (response.getStatus() == ResponseStatus.SUCCESS) {
+            _written.addAndGet(size);
+        } else {
+            _failed.addAndGet(size);
+        }
+        if (_callback == null) {
+            return null;
+        }
+        return new Runnable() {
+            public void run() {
+                _callback.completed(response);
+            }
+        };
+    }
+
+    /**
+     * Append an undelivered batch to the spool.
+     *
+     * @return true if the batch was spooled.
+     */
+    private boolean spool(MetricsDataPointsRequest request, Exception cause) {
+        if (_spool == null || (cause != null && !(cause instanceof IOException))) {
+            return false;
+        }
+        try {
+            _spool.append(request);
+            return true;
+        } catch (Exception e) {
+            _log.warn("Unable to spool metric data", e);
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a failure response indicates the server could not
+     * process the request at all, as opposed to rejecting the data.  This
+     * includes requests rejected by the connection's
+     * {@link CircuitBreaker} or {@link ConcurrencyLimiter}.
+     */
+    private static boolean isUnavailable(StatusResponse response) {
+        if (response.getStatus() == ResponseStatus.SUCCESS ||
+            response.getError() == null) {
+            return false;
+        }
+        String code = response.getError().getErrorCode();
+        return ErrorCode.UNEXPECTED_ERROR.getErrorCode().equals(code) ||
+               ErrorCode.SERVICE_UNAVAILABLE.getErrorCode().equals(code);
+    }
+
+    private void scheduleReplay() throws IOException {
+        if (_spool.isEmpty() || !_replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            _sender.execute(new Runnable() {
+                public void run() {
+                    try {
+                        replay();
+                    } finally {
+                        _replaying.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _replaying.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Send spooled batches in order until the spool is empty or the server
+     * is still unavailable.
+     */
+    private void replay() {
+        try {
+            MetricsDataPointsRequest request;
+            while ((request = _spool.peek()) != null) {
+                StatusResponse response;
+                try {
+                    response = _api.addData(request);
+                } catch (IOException e) {
+                    _log.debug("HQ server unavailable, keeping spooled data", e);
+                    return;
+                }
+                if (isUnavailable(response)) {
+                    // Only count failures reported by the server, not
+                    // requests that were never sent.
+                    if (ErrorCode.SERVICE_UNAVAILABLE.getErrorCode().equals(
+                            response.getError().getErrorCode()) ||
+                        ++_replayAttempts < _maxReplayAttempts) {
+                        return;
+                    }
+                    _log.warn("Spooled metric data failed " + _replayAttempts +
+                              " times, moving it to " +
+                              _spool.getDeadLetterDirectory());
+                    _spool.reject();
+                } else {
+                    _spool.remove();
+                }
+                _replayAttempts = 0;
+                Runnable notification =
+                    completed(response, MetricSpool.countPoints(request));
+                if (notification != null) {
+                    notification.run();
+                }
+            }
+        } catch (Exception e) {
+            _log.warn("Unable to replay spooled metric data", e);
+        }
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger _threadNumber = new AtomicInteger(1);
+        private final String _prefix = "HQApi-MetricWriter-" +
+                                       _writerNumber.getAndIncrement() + "-";
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, _prefix + _threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
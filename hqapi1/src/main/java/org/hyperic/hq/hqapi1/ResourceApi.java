@@ -39,6 +39,7 @@ import org.hyperic.hq.hqapi1.types.ResourcePrototypesResponse;
 import org.hyperic.hq.hqapi1.types.ResourceResponse;
 import org.hyperic.hq.hqapi1.types.ResourcesRequest;
 import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
 import org.hyperic.hq.hqapi1.types.StatusResponse;
 
 import java.io.IOException;
@@ -67,9 +68,47 @@ import java.util.Map;
  * google.com port 80 check, Local Tomcat Instance   
  */
 public class ResourceApi extends BaseApi {
-    
+
+    private volatile LookupCache<String,ResourcePrototypeResponse> _prototypeCache;
+
+    // The ResourceApi owning the cache, this instance unless it belongs to a
+    // view created by HQApi.withTimeouts().
+    private final ResourceApi _root;
+
     ResourceApi(HQConnection conn) {
+        this(conn, null);
+    }
+
+    ResourceApi(HQConnection conn, ResourceApi parent) {
         super(conn);
+        _root = parent == null ? this : parent._root;
+    }
+
+    /**
+     * Cache the results of {@link #getResourcePrototype(String)} in memory.
+     * Cached responses are shared between callers and must not be modified.
+     *
+     * @param ttl The time a cached ResourcePrototype stays valid, in
+     * milliseconds.
+     * @param maxEntries The maximum number of ResourcePrototypes to cache.
+     */
+    public void enableCache(long ttl, int maxEntries) {
+        _root._prototypeCache = new LookupCache<String,ResourcePrototypeResponse>(ttl, maxEntries);
+    }
+
+    /**
+     * Stop caching ResourcePrototypes and drop any cached ones.
+     */
+    public void disableCache() {
+        _root._prototypeCache = null;
+    }
+
+    /**
+     * @return The cache of ResourcePrototypes by name, or null if caching is
+     * not enabled.
+     */
+    public LookupCache<String,ResourcePrototypeResponse> getPrototypeCache() {
+        return _root._prototypeCache;
     }
 
     /**
@@ -84,9 +123,9 @@ public class ResourceApi extends BaseApi {
     public ResourcePrototypesResponse getAllResourcePrototypes()
         throws IOException
     {   
-        return doGet("resource/getResourcePrototypes.hqu",
-                     new HashMap<String,String[]>(),
-                     new XmlResponseHandler<ResourcePrototypesResponse>(ResourcePrototypesResponse.class));
+        return doConditionalGet("resource/getResourcePrototypes.hqu",
+                                new HashMap<String,String[]>(),
+                                new XmlResponseHandler<ResourcePrototypesResponse>(ResourcePrototypesResponse.class));
     }
 
     /**
@@ -104,8 +143,8 @@ public class ResourceApi extends BaseApi {
     {
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("existing", new String[] { Boolean.toString(Boolean.TRUE) });
-        return doGet("resource/getResourcePrototypes.hqu", params,
-                     new XmlResponseHandler<ResourcePrototypesResponse>(ResourcePrototypesResponse.class));
+        return doConditionalGet("resource/getResourcePrototypes.hqu", params,
+                                new XmlResponseHandler<ResourcePrototypesResponse>(ResourcePrototypesResponse.class));
     }
 
     /**
@@ -121,11 +160,24 @@ public class ResourceApi extends BaseApi {
     public ResourcePrototypeResponse getResourcePrototype(String name)
         throws IOException
     {
+        LookupCache<String,ResourcePrototypeResponse> cache = _root._prototypeCache;
+        if (cache != null) {
+            ResourcePrototypeResponse cached = cache.get(name);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         Map<String,String[]> params = new HashMap<String,String[]>();
         params.put("name", new String[] { name });
-        return doGet("resource/getResourcePrototype.hqu",
-                     params,
-                     new XmlResponseHandler<ResourcePrototypeResponse>(ResourcePrototypeResponse.class));
+        ResourcePrototypeResponse response =
+            doCoalescedGet("resource/getResourcePrototype.hqu",
+                  params,
+                  new XmlResponseHandler<ResourcePrototypeResponse>(ResourcePrototypeResponse.class));
+        if (cache != null && response.getStatus() == ResponseStatus.SUCCESS) {
+            cache.put(name, response);
+        }
+        return response;
     }
 
     /**
@@ -268,7 +320,7 @@ public class ResourceApi extends BaseApi {
         params.put("id", new String[] { Integer.toString(id) });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/get.hqu", params,
+        return doCoalescedGet("resource/get.hqu", params,
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
 
@@ -294,7 +346,7 @@ public class ResourceApi extends BaseApi {
         params.put("aeid", new String[] { aeid });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/get.hqu", params,
+        return doCoalescedGet("resource/get.hqu", params,
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }    
     
@@ -321,7 +373,7 @@ public class ResourceApi extends BaseApi {
         params.put("platformName", new String[] { name });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/get.hqu", params,
+        return doCoalescedGet("resource/get.hqu", params,
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
 
@@ -348,7 +400,7 @@ public class ResourceApi extends BaseApi {
         params.put("fqdn", new String[] { fqdn });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/get.hqu", params,
+        return doCoalescedGet("resource/get.hqu", params,
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
 
@@ -375,7 +427,7 @@ public class ResourceApi extends BaseApi {
         params.put("ip", new String[] { ip });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/find.hqu", params,
+        return doCoalescedGet("resource/find.hqu", params,
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
     
@@ -402,7 +454,7 @@ public class ResourceApi extends BaseApi {
         params.put("platformId", new String[] { Integer.toString(id) });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/get.hqu", params,
+        return doCoalescedGet("resource/get.hqu", params,
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
 
@@ -431,7 +483,7 @@ public class ResourceApi extends BaseApi {
         params.put("agentId", new String[] { Integer.toString(agent.getId()) });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/find.hqu", params,
+        return doCoalescedGet("resource/find.hqu", params,
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
 
@@ -459,7 +511,7 @@ public class ResourceApi extends BaseApi {
         params.put("prototype", new String[] { pt.getName() });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/find.hqu", params,
+        return doCoalescedGet("resource/find.hqu", params,
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
 
@@ -487,7 +539,7 @@ public class ResourceApi extends BaseApi {
         params.put("description", new String[] { description });
         params.put("verbose", new String[] { Boolean.toString(verbose) });
         params.put("children", new String[] { Boolean.toString(children)});
-        return doGet("resource/find.hqu", params,
+        return doCoalescedGet("resource/find.hqu", params,
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));
     }
 
@@ -508,7 +560,7 @@ public class ResourceApi extends BaseApi {
         request.getResource().add(resource);
 
         return doPost("resource/update.hqu", request, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -528,7 +580,7 @@ public class ResourceApi extends BaseApi {
         request.getResource().addAll(resources);
 
         return doPost("resource/sync.hqu", request, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -548,7 +600,7 @@ public class ResourceApi extends BaseApi {
         Map<String,String[]> params = new HashMap<String, String[]>();
         params.put("id", new String[] { Integer.toString(id) });
         return doGet("resource/delete.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -569,7 +621,7 @@ public class ResourceApi extends BaseApi {
         params.put("targetId", new String[] { Integer.toString(target.getId()) });
         params.put("destinationId", new String[] { Integer.toString(destination.getId() )});
         return doGet("resource/move.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -585,7 +637,7 @@ public class ResourceApi extends BaseApi {
     {
         Map<String,String[]> params = new HashMap<String, String[]>();
         params.put("parentOf", new String[] { Integer.toString(r.getId()) });
-        return doGet("resource/get.hqu", params,
+        return doCoalescedGet("resource/get.hqu", params,
                      new XmlResponseHandler<ResourceResponse>(ResourceResponse.class));
     }
     
@@ -598,5 +650,67 @@ public class ResourceApi extends BaseApi {
         return doGet("resource/getPlatformResources.hqu", params,
                      new XmlResponseHandler<ResourcesResponse>(ResourcesResponse.class));        
     }
+
+    /**
+     * Stream all platform {@link Resource}s in the system to the given
+     * handler.  Each platform is passed to the handler as soon as it has been
+     * read, so the complete inventory is never held in memory.
+     *
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of the platforms
+     * will be included.
+     * @param handler The {@link ElementHandler} each platform is passed to.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * all platforms were retrieved.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public StatusResponse getPlatformResources(boolean verbose, boolean children,
+                                               ElementHandler<Resource> handler)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(children)});
+        return doGet("resource/getPlatformResources.hqu", params,
+                     new XmlStreamingResponseHandler<Resource>("Resource", Resource.class,
+                                                               handler));
+    }
+
+    /**
+     * Stream the platform {@link Resource}s that were modified after the
+     * given time to the given handler.  A platform is included if the
+     * platform itself or any of its child resources was modified.
+     *
+     * @param verbose Flag to indicate whether {@link org.hyperic.hq.hqapi1.types.ResourceConfig}
+     * and {@link org.hyperic.hq.hqapi1.types.ResourceProperty} information will
+     * be included.
+     * @param children Flag to control whether child resources of the platforms
+     * will be included.
+     * @param modifiedSince Only include platforms modified after this time,
+     * in milliseconds since the epoch, as seen by the HQ server.
+     * @param handler The {@link ElementHandler} each platform is passed to.
+     *
+     * @return {@link org.hyperic.hq.hqapi1.types.ResponseStatus#SUCCESS} if
+     * all modified platforms were retrieved.
+     *
+     * @throws java.io.IOException If a network error occurs while making the request.
+     */
+    public StatusResponse getPlatformResources(boolean verbose, boolean children,
+                                               long modifiedSince,
+                                               ElementHandler<Resource> handler)
+        throws IOException
+    {
+        Map<String,String[]> params = new HashMap<String, String[]>();
+        params.put("verbose", new String[] { Boolean.toString(verbose) });
+        params.put("children", new String[] { Boolean.toString(children)});
+        params.put("modifiedSince", new String[] { Long.toString(modifiedSince) });
+        return doGet("resource/getPlatformResources.hqu", params,
+                     new XmlStreamingResponseHandler<Resource>("Resource", Resource.class,
+                                                               handler));
+    }
     
 }
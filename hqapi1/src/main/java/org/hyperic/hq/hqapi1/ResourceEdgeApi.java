@@ -100,7 +100,7 @@ public class ResourceEdgeApi extends BaseApi {
         ResourceEdgesRequest request = new ResourceEdgesRequest();
         request.getResourceEdge().addAll(edges);
         return doPost("resource/syncResourceEdges.hqu", request, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
     
     public StatusResponse createResourceEdges(List<ResourceEdge> edges)
@@ -128,6 +128,6 @@ public class ResourceEdgeApi extends BaseApi {
         params.put("resourceRelation", new String[] { resourceRelation });
         params.put("id", new String[] { Integer.toString(id) });
         return doGet("resource/deleteAllResourceEdges.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hyperic.hq.hqapi1.types.Response;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.ServiceError;
+
+/**
+ * Creates response objects for responses the HQ server did not send, such as
+ * login failures or unreachable servers.  The constructor for each response
+ * class is looked up once and shared by all handlers for that class.
+ */
+final class ResponseFactory<T extends Response> {
+
+    private static final ConcurrentMap<Class<?>,ResponseFactory<?>> _factories =
+            new ConcurrentHashMap<Class<?>,ResponseFactory<?>>();
+
+    private final Constructor<T> _constructor;
+
+    private ResponseFactory(Class<T> clazz) {
+        try {
+            _constructor = clazz.getConstructor();
+        } catch (NoSuchMethodException e) {
+            // All JAXB generated types have a public no-arg constructor.
+            throw new IllegalArgumentException("No default constructor for " +
+                                               clazz.getName());
+        }
+    }
+
+    /**
+     * Get the factory for the given response class.
+     *
+     * @param clazz The response class.
+     * @return The factory for the given class.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Response> ResponseFactory<T> getFactory(Class<T> clazz) {
+        ResponseFactory<T> factory = (ResponseFactory<T>)_factories.get(clazz);
+        if (factory == null) {
+            factory = new ResponseFactory<T>(clazz);
+            ResponseFactory<T> existing =
+                    (ResponseFactory<T>)_factories.putIfAbsent(clazz, factory);
+            if (existing != null) {
+                factory = existing;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Create a successful response.
+     *
+     * @return A response with {@link ResponseStatus#SUCCESS}.
+     * @throws IOException If the response object could not be created.
+     */
+    T createSuccessResponse() throws IOException {
+        T ret = newInstance();
+        ret.setStatus(ResponseStatus.SUCCESS);
+        return ret;
+    }
+
+    /**
+     * Create a failed response with the given error.
+     *
+     * @param error The ServiceError to include in the response.
+     * @return A response with {@link ResponseStatus#FAILURE} and the given error.
+     * @throws IOException If the response object could not be created.
+     */
+    T createErrorResponse(ServiceError error) throws IOException {
+        T ret = newInstance();
+        ret.setStatus(ResponseStatus.FAILURE);
+        ret.setError(error);
+        return ret;
+    }
+
+    private T newInstance() throws IOException {
+        try {
+            return _constructor.newInstance();
+        } catch (Exception e) {
+            throw new IOException("Error generating response: " + e);
+        }
+    }
+}
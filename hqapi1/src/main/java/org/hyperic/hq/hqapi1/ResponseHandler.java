@@ -17,9 +17,7 @@ public interface ResponseHandler<T> {
 
     /**
      * Generate an response object with the given Error. In some cases the HQ
-     * server will not give us a result, so we generate one ourselves. XXX: It
-     * would be nice here if we could get JAXB to generate an interface for all
-     * response objects so we don't need to use reflection here.
+     * server will not give us a result, so we generate one ourselves.
      *
      * @param error
      *            The ServiceError to include in the response
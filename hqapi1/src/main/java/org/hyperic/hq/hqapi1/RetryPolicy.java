@@ -0,0 +1,280 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Decides whether and when {@link HQConnection} retries a failed request.
+ * <br><br>
+ * By default a request is retried up to 3 times if it never reached the HQ
+ * server, i.e. the connection was refused or timed out.  A request that may
+ * have reached the server, such as one that timed out waiting for the
+ * response or got a 502, 503 or 504 back, is only retried if it is
+ * idempotent.  The API classes decide this for every call: GETs that only
+ * read are idempotent, as are POSTs such as sync that are safe to repeat,
+ * while actions such as control/execute.hqu or alert/fix.hqu are not.
+ * Retries back off exponentially with random jitter.
+ * <br><br>
+ * Retries are limited by a budget shared by all requests on the connection:
+ * every request earns a fraction of a retry, and a retry is only made if a
+ * whole one is available.  This keeps retries from multiplying the load on
+ * a server that is already failing.
+ * <br><br>
+ * Subclasses may override the isRetryable methods to change which failures
+ * are retried.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 100;
+    public static final long DEFAULT_MAX_BACKOFF = 5000;
+    public static final double DEFAULT_JITTER = 0.5;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_BUDGET_RESERVE = 10;
+
+    private static final Random RANDOM = new Random();
+
+    private volatile int _maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long _initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long _maxBackoff = DEFAULT_MAX_BACKOFF;
+    private volatile double _jitter = DEFAULT_JITTER;
+    private volatile double _budgetRatio = DEFAULT_BUDGET_RATIO;
+    private volatile int _budgetReserve = DEFAULT_BUDGET_RESERVE;
+
+    private final Object _budgetLock = new Object();
+    private double _budget = DEFAULT_BUDGET_RESERVE;
+
+    private final AtomicLong _retries = new AtomicLong();
+    private final AtomicLong _retriesExhausted = new AtomicLong();
+    private final AtomicLong _budgetExhausted = new AtomicLong();
+
+    /**
+     * @return A policy that never retries.
+     */
+    public static RetryPolicy none() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetries(0);
+        return policy;
+    }
+
+    /**
+     * @param statusCode The HTTP status code returned by the HQ server.
+     * @param idempotent true if the request is safe to repeat.
+     * @return true if the request should be retried.
+     */
+    public boolean isRetryable(int statusCode, boolean idempotent) {
+        return idempotent &&
+               (statusCode == 502 || statusCode == 503 || statusCode == 504);
+    }
+
+    /**
+     * @param e The exception the request failed with.
+     * @param idempotent true if the request is safe to repeat.
+     * @return true if the request should be retried.
+     */
+    public boolean isRetryable(IOException e, boolean idempotent) {
+        if (isConnectFailure(e)) {
+            return true;
+        }
+        if (!idempotent || e instanceof UnknownHostException ||
+            e instanceof SSLException) {
+            return false;
+        }
+        // Plain InterruptedIOExceptions signal an interrupted thread rather
+        // than a timeout.
+        return !(e instanceof InterruptedIOException) ||
+               e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * @param e The exception the request failed with.
+     * @return true if the request failed before it was sent to the HQ
+     * server.  This includes timing out waiting for a pooled connection.
+     */
+    protected boolean isConnectFailure(IOException e) {
+        return e instanceof ConnectException ||
+               e instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * @param attempt The number of retries already made, starting at 0.
+     * @return The time to wait before the next retry, in milliseconds.
+     */
+    public long getBackoff(int attempt) {
+        double backoff = Math.min((double)_maxBackoff,
+                                  _initialBackoff * Math.pow(2, attempt));
+        double jitter;
+        synchronized (RANDOM) {
+            jitter = RANDOM.nextDouble();
+        }
+        return (long)(backoff * (1 - _jitter * jitter));
+    }
+
+    /**
+     * Record a new request, adding to the retry budget.
+     */
+    void requestStarted() {
+        synchronized (_budgetLock) {
+            _budget = Math.min(_budgetReserve, _budget + _budgetRatio);
+        }
+    }
+
+    /**
+     * Take a retry from the budget.
+     *
+     * @param attempt The number of retries already made for the request.
+     * @return true if the retry may be made.
+     */
+    boolean acquireRetry(int attempt) {
+        if (attempt >= _maxRetries) {
+            if (_maxRetries > 0) {
+                _retriesExhausted.incrementAndGet();
+            }
+            return false;
+        }
+        synchronized (_budgetLock) {
+            if (_budget < 1) {
+                _budgetExhausted.incrementAndGet();
+                return false;
+            }
+            _budget--;
+        }
+        _retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return The maximum number of retries per request.
+     */
+    public int getMaxRetries() {
+        return _maxRetries;
+    }
+
+    /**
+     * @param maxRetries The maximum number of retries per request, or 0 to
+     * disable retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        _maxRetries = maxRetries;
+    }
+
+    /**
+     * @return The backoff before the first retry, in milliseconds.
+     */
+    public long getInitialBackoff() {
+        return _initialBackoff;
+    }
+
+    /**
+     * @param initialBackoff The backoff before the first retry, in
+     * milliseconds.  The backoff doubles with each further retry.
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        _initialBackoff = initialBackoff;
+    }
+
+    /**
+     * @return The maximum backoff between retries, in milliseconds.
+     */
+    public long getMaxBackoff() {
+        return _maxBackoff;
+    }
+
+    /**
+     * @param maxBackoff The maximum backoff between retries, in milliseconds.
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        _maxBackoff = maxBackoff;
+    }
+
+    /**
+     * @return The fraction of the backoff that is randomized.
+     */
+    public double getJitter() {
+        return _jitter;
+    }
+
+    /**
+     * @param jitter The fraction of the backoff that is randomized, between
+     * 0 for a fixed backoff and 1 for a backoff anywhere up to the full value.
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+        _jitter = jitter;
+    }
+
+    /**
+     * @param budgetRatio The fraction of a retry earned by every request.
+     * @param budgetReserve The maximum number of retries that can be saved
+     * up, allowing short bursts of failures to be retried.
+     */
+    public void setBudget(double budgetRatio, int budgetReserve) {
+        synchronized (_budgetLock) {
+            _budgetRatio = budgetRatio;
+            _budgetReserve = budgetReserve;
+            _budget = Math.min(_budget, budgetReserve);
+        }
+    }
+
+    /**
+     * @return The number of retries made.
+     */
+    public long getRetryCount() {
+        return _retries.get();
+    }
+
+    /**
+     * @return The number of requests that failed after using all their
+     * retries.
+     */
+    public long getRetriesExhaustedCount() {
+        return _retriesExhausted.get();
+    }
+
+    /**
+     * @return The number of retries skipped because the retry budget was
+     * used up.
+     */
+    public long getBudgetExhaustedCount() {
+        return _budgetExhausted.get();
+    }
+}
@@ -68,8 +68,8 @@ public class RoleApi extends BaseApi {
     public RolesResponse getRoles()
         throws IOException
     {
-        return doGet("role/list.hqu", new HashMap<String, String[]>(),
-                     new XmlResponseHandler<RolesResponse>(RolesResponse.class));
+        return doConditionalGet("role/list.hqu", new HashMap<String, String[]>(),
+                                new XmlResponseHandler<RolesResponse>(RolesResponse.class));
     }
 
     /**
@@ -87,8 +87,8 @@ public class RoleApi extends BaseApi {
     {
         Map<String, String[]> params = new HashMap<String, String[]>();
         params.put("user", new String[] { u.getName() });
-        return doGet("role/list.hqu", params,
-                     new XmlResponseHandler<RolesResponse>(RolesResponse.class));
+        return doConditionalGet("role/list.hqu", params,
+                                new XmlResponseHandler<RolesResponse>(RolesResponse.class));
     }
 
     /**
@@ -167,7 +167,7 @@ public class RoleApi extends BaseApi {
         Map<String, String[]> params = new HashMap<String,String[]>();
         params.put("id", new String[] { String.valueOf(id) });
         return doGet("role/delete.hqu", params, 
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -186,7 +186,7 @@ public class RoleApi extends BaseApi {
         RoleRequest request = new RoleRequest();
         request.setRole(role);
         return doPost("role/update.hqu", request, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -205,6 +205,6 @@ public class RoleApi extends BaseApi {
         RolesRequest request = new RolesRequest();
         request.getRole().addAll(roles);
         return doPost("role/sync.hqu", request,
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+
+package org.hyperic.hq.hqapi1;
+
+import java.util.Map;
+
+/**
+ * Describes how the HQ server should roll up metric data before returning
+ * it.  The requested time range is divided into buckets aligned to
+ * multiples of the bucket length since the epoch, and the data points
+ * within each bucket are combined into a single data point using an
+ * {@link Aggregation}.  Each returned data point has the start time of its
+ * bucket as its timestamp, which may be before the start of the range.
+ * Buckets are the same as those of
+ * {@link MetricDataSeries#rollup(long, Aggregation)}.
+ * <br><br>
+ * Either the bucket length is given directly with
+ * {@link #interval(long, Aggregation)}, or the number of buckets is bounded
+ * with {@link #maxPoints(int, Aggregation)} so that the size of the response
+ * does not depend on the length of the time range.
+ */
+public final class Rollup {
+
+    private final long _interval;
+    private final int _maxPoints;
+    private final Aggregation _aggregation;
+
+    private Rollup(long interval, int maxPoints, Aggregation aggregation) {
+        if (aggregation == null) {
+            throw new IllegalArgumentException("Aggregation must be given");
+        }
+        _interval = interval;
+        _maxPoints = maxPoints;
+        _aggregation = aggregation;
+    }
+
+    /**
+     * @param interval The length of each bucket, in milliseconds.
+     * @param aggregation The function used to combine each bucket.
+     * @return A Rollup with a fixed bucket length.
+     */
+    public static Rollup interval(long interval, Aggregation aggregation) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be > 0");
+        }
+        return new Rollup(interval, 0, aggregation);
+    }
+
+    /**
+     * @param maxPoints The maximum number of data points to return per
+     * metric.
+     * @param aggregation The function used to combine each bucket.
+     * @return A Rollup bounding the number of buckets.
+     */
+    public static Rollup maxPoints(int maxPoints, Aggregation aggregation) {
+        if (maxPoints < 1) {
+            throw new IllegalArgumentException("Max points must be > 0");
+        }
+        return new Rollup(0, maxPoints, aggregation);
+    }
+
+    /**
+     * @return The length of each bucket, in milliseconds, or 0 if the
+     * number of buckets is bounded instead.
+     */
+    public long getInterval() {
+        return _interval;
+    }
+
+    /**
+     * @return The maximum number of data points per metric, or 0 if the
+     * bucket length is given instead.
+     */
+    public int getMaxPoints() {
+        return _maxPoints;
+    }
+
+    public Aggregation getAggregation() {
+        return _aggregation;
+    }
+
+    void addParams(Map<String, String[]> params) {
+        if (_interval > 0) {
+            params.put("interval", new String[] { Long.toString(_interval) });
+        }
+        if (_maxPoints > 0) {
+            params.put("maxPoints", new String[] { Integer.toString(_maxPoints) });
+        }
+        params.put("aggregation", new String[] { _aggregation.name().toLowerCase() });
+    }
+}
@@ -60,6 +60,6 @@ public class ServerConfigApi extends BaseApi {
         ServerConfigRequest request = new ServerConfigRequest();
         request.getServerConfig().addAll(configs);
         return doPost("serverConfig/setConfig.hqu", request, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 }
@@ -0,0 +1,101 @@
+/*
+ * 
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ * 
+ * Copyright (C) [2008-2010], Hyperic, Inc.
+ * This file is part of HQ.
+ * 
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ * 
+ */
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges identical concurrent calls into one.  The first caller for a key
+ * runs the call, callers arriving with the same key while it is in flight
+ * wait for it and get the same result, or the same exception.  Once the
+ * call completes the next caller for the key runs it again, results are
+ * never cached.
+ */
+final class SingleFlight {
+
+    private final ConcurrentMap<String,FutureTask<?>> _calls =
+            new ConcurrentHashMap<String,FutureTask<?>>();
+    private final AtomicLong _coalesced = new AtomicLong();
+
+    /**
+     * Run the given call, or wait for the call already in flight with the
+     * same key.  Calls sharing a key must return the same type.
+     */
+    <T> T execute(String key, Callable<T> call) throws IOException {
+        FutureTask<T> task = new FutureTask<T>(call);
+        @SuppressWarnings("unchecked")
+        FutureTask<T> existing = (FutureTask<T>)_calls.putIfAbsent(key, task);
+        if (existing != null) {
+            _coalesced.incrementAndGet();
+            return get(existing);
+        }
+
+        try {
+            task.run();
+        } finally {
+            _calls.remove(key, task);
+        }
+        return get(task);
+    }
+
+    /**
+     * @return The number of calls that were answered by a call already in
+     * flight.
+     */
+    long getCoalescedCount() {
+        return _coalesced.get();
+    }
+
+    private static <T> T get(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " +
+                                             "request in flight");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+}
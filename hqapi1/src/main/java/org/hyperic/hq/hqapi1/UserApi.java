@@ -106,8 +106,8 @@ public class UserApi extends BaseApi {
     public UsersResponse getUsers()
         throws IOException
     {
-        return doGet("user/list.hqu", new HashMap<String,String[]>(),
-                     new XmlResponseHandler<UsersResponse>(UsersResponse.class));
+        return doConditionalGet("user/list.hqu", new HashMap<String,String[]>(),
+                                new XmlResponseHandler<UsersResponse>(UsersResponse.class));
     }
 
     /**
@@ -138,7 +138,7 @@ public class UserApi extends BaseApi {
         params.put("SMSAddress", new String[] { user.getSMSAddress() });
 
         return doGet("user/create.hqu", params, 
-                     new XmlResponseHandler<UserResponse>(UserResponse.class));
+                     new XmlResponseHandler<UserResponse>(UserResponse.class), false);
     }
 
     /**
@@ -158,7 +158,7 @@ public class UserApi extends BaseApi {
         params.put("id", new String[] { Integer.toString(id) });
 
         return doGet("user/delete.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 
     /**
@@ -178,7 +178,7 @@ public class UserApi extends BaseApi {
         req.getUser().add(user);
 
         return doPost("user/sync.hqu", req, 
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -198,7 +198,7 @@ public class UserApi extends BaseApi {
         request.getUser().addAll(users);
 
         return doPost("user/sync.hqu", request,
-                      new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                      new XmlResponseHandler<StatusResponse>(StatusResponse.class), true);
     }
 
     /**
@@ -221,6 +221,6 @@ public class UserApi extends BaseApi {
         params.put("password", new String[] { password });
 
         return doGet("user/changePassword.hqu", params,
-                     new XmlResponseHandler<StatusResponse>(StatusResponse.class));
+                     new XmlResponseHandler<StatusResponse>(StatusResponse.class), false);
     }
 }
@@ -4,14 +4,13 @@ package org.hyperic.hq.hqapi1;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Method;
 
 import javax.xml.bind.JAXBException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpResponse;
-import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.Response;
 import org.hyperic.hq.hqapi1.types.ServiceError;
 
 /**
@@ -21,14 +20,24 @@ import org.hyperic.hq.hqapi1.types.ServiceError;
  * @author Jennifer Hickey
  * 
  */
-public class XmlResponseHandler<T> implements ResponseHandler<T> {
+public class XmlResponseHandler<T extends Response> implements ResponseHandler<T> {
 
     private static Log _log = LogFactory.getLog(XmlResponseHandler.class);
 
     private Class<T> clazz;
+
+    private ResponseFactory<T> factory;
     
     public XmlResponseHandler(Class<T> clazz) {
         this.clazz = clazz;
+        this.factory = ResponseFactory.getFactory(clazz);
+    }
+
+    /**
+     * @return The type of response this handler returns.
+     */
+    Class<T> getResponseClass() {
+        return clazz;
     }
 
     public T handleResponse(HttpResponse response) throws IOException {
@@ -67,12 +76,9 @@ public class XmlResponseHandler<T> implements ResponseHandler<T> {
         }
     }
     
-     /**
+    /**
      * Generate an response object with the given Error.  In some cases the
      * HQ server will not give us a result, so we generate one ourselves.
-     * XXX: It would be nice here if we could get JAXB to generate an
-     *      interface for all response objects so we don't need to use
-     *      reflection here.
      * 
      * @param error The ServiceError to include in the response
      * @return A response object of the given type with the given service error.
@@ -81,27 +87,6 @@ public class XmlResponseHandler<T> implements ResponseHandler<T> {
     public T getErrorResponse(ServiceError error)
         throws IOException
     {
-        try {
-            T ret = clazz.newInstance();
-
-            Method setResponse = clazz.getMethod("setStatus", ResponseStatus.class);
-            setResponse.invoke(ret, ResponseStatus.FAILURE);
-
-            Method setError = clazz.getMethod("setError", ServiceError.class);
-            setError.invoke(ret, error);
-
-            return ret;
-        } catch (Exception e) {
-            // This shouldn't happen unless programmer error.  For instance,
-            // a result object not containing a Status or Error field.
-            if (_log.isDebugEnabled()) {
-                _log.debug("Error generating error response", e);
-            }
-
-            throw new IOException("Error generating Error response");
-        }
+        return factory.createErrorResponse(error);
     }
-
-
-
 }
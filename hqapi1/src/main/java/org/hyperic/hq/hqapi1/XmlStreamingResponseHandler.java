@@ -0,0 +1,148 @@
+/* Copyright 2009 SpringSource Inc. All Rights Reserved. */
+
+package org.hyperic.hq.hqapi1;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+import org.hyperic.hq.hqapi1.types.ServiceError;
+import org.hyperic.hq.hqapi1.types.StatusResponse;
+
+/**
+ * Implementation of {@link ResponseHandler} that parses a list response with
+ * StAX and unmarshals the repeated elements of the response one at a time,
+ * passing each to an {@link ElementHandler}.  Only a single element is held
+ * in memory at any time, regardless of the size of the response.
+ * <br><br>
+ * The Status and Error of the response are returned as a
+ * {@link org.hyperic.hq.hqapi1.types.StatusResponse}.
+ */
+public class XmlStreamingResponseHandler<E> implements ResponseHandler<StatusResponse> {
+
+    private static Log _log = LogFactory.getLog(XmlStreamingResponseHandler.class);
+
+    private static final XMLInputFactory _inputFactory = XMLInputFactory.newInstance();
+
+    private static final String ELEMENT_STATUS = "Status";
+    private static final String ELEMENT_ERROR = "Error";
+
+    private final String _elementName;
+    private final Class<E> _clazz;
+    private final ElementHandler<E> _handler;
+    private final XmlResponseHandler<StatusResponse> _statusHandler =
+            new XmlResponseHandler<StatusResponse>(StatusResponse.class);
+
+    /**
+     * @param elementName The name of the repeated element within the
+     * response, for example 'Resource' for a ResourcesResponse.
+     * @param clazz The type the repeated elements are unmarshalled to.
+     * @param handler The handler each element is passed to.
+     */
+    public XmlStreamingResponseHandler(String elementName, Class<E> clazz,
+                                       ElementHandler<E> handler) {
+        _elementName = elementName;
+        _clazz = clazz;
+        _handler = handler;
+    }
+
+    public StatusResponse getErrorResponse(ServiceError error)
+        throws IOException
+    {
+        return _statusHandler.getErrorResponse(error);
+    }
+
+    public StatusResponse handleResponse(HttpResponse response) throws IOException {
+        if (response.getStatusLine().getStatusCode() != 200) {
+            return _statusHandler.handleResponse(response);
+        }
+
+        InputStream is = response.getEntity().getContent();
+        XMLStreamReader reader = null;
+        try {
+            synchronized (_inputFactory) {
+                reader = _inputFactory.createXMLStreamReader(is);
+            }
+            return parse(reader);
+        } catch (XMLStreamException e) {
+            return getDeserializationError(e);
+        } catch (JAXBException e) {
+            return getDeserializationError(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private StatusResponse parse(XMLStreamReader reader)
+        throws XMLStreamException, JAXBException, IOException
+    {
+        Unmarshaller u = XmlUtil.createUnmarshaller(_clazz);
+        StatusResponse result = new StatusResponse();
+        int depth = 0;
+        int event = reader.getEventType();
+
+        while (true) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                // Only look at direct children of the response element.
+                if (depth == 2) {
+                    String name = reader.getLocalName();
+                    if (_elementName.equals(name)) {
+                        // Unmarshalling consumes the element and leaves the
+                        // reader on the event following it.
+                        _handler.handleElement(u.unmarshal(reader, _clazz).getValue());
+                        depth--;
+                        event = reader.getEventType();
+                        continue;
+                    } else if (ELEMENT_ERROR.equals(name)) {
+                        result.setError(u.unmarshal(reader, ServiceError.class).getValue());
+                        depth--;
+                        event = reader.getEventType();
+                        continue;
+                    } else if (ELEMENT_STATUS.equals(name)) {
+                        // Leaves the reader on the end element.
+                        result.setStatus(ResponseStatus.fromValue(reader.getElementText().trim()));
+                        depth--;
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+
+            if (!reader.hasNext()) {
+                break;
+            }
+            event = reader.next();
+        }
+
+        return result;
+    }
+
+    private StatusResponse getDeserializationError(Exception e)
+        throws IOException
+    {
+        ServiceError error = new ServiceError();
+        error.setErrorCode("UnexpectedError");
+        error.setReasonText("Unable to deserialize result");
+        if (_log.isDebugEnabled()) {
+            _log.debug("Unable to deserialize result", e);
+        }
+        return getErrorResponse(error);
+    }
+}
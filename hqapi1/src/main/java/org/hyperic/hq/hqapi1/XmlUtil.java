@@ -31,48 +31,104 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEventHandler;
 import javax.xml.bind.helpers.DefaultValidationEventHandler;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class to convert Java objects to XML and vice versa.
+ * <br><br>
+ * JAXBContexts are cached per package.  Marshallers and Unmarshallers are
+ * not thread safe, so they are cached per thread and reused for every
+ * conversion on that thread.
  */
 public class XmlUtil {
 
-    private static Map<String,JAXBContext> _ctxMap =
-            new HashMap<String,JAXBContext>();
+    private static final ConcurrentMap<String,JAXBContext> _ctxMap =
+            new ConcurrentHashMap<String,JAXBContext>();
 
-    private static synchronized JAXBContext getCachedContext(String pkg) throws JAXBException {
+    // Stateless, so may be shared by all (un)marshallers
+    private static final ValidationEventHandler _eventHandler =
+            new DefaultValidationEventHandler();
+
+    private static final ThreadLocal<Map<String,Unmarshaller>> _unmarshallers =
+            new ThreadLocal<Map<String,Unmarshaller>>() {
+                protected Map<String,Unmarshaller> initialValue() {
+                    return new HashMap<String,Unmarshaller>();
+                }
+            };
+
+    private static final ThreadLocal<Map<String,Marshaller>> _marshallers =
+            new ThreadLocal<Map<String,Marshaller>>() {
+                protected Map<String,Marshaller> initialValue() {
+                    return new HashMap<String,Marshaller>();
+                }
+            };
+
+    private static JAXBContext getCachedContext(String pkg) throws JAXBException {
         JAXBContext ctx = _ctxMap.get(pkg);
         if (ctx == null) {
+            // Creating a context is expensive but idempotent, so a race here
+            // only costs an extra context which is then discarded.
             ctx = JAXBContext.newInstance(pkg);
-            _ctxMap.put(pkg, ctx);
+            JAXBContext existing = _ctxMap.putIfAbsent(pkg, ctx);
+            if (existing != null) {
+                ctx = existing;
+            }
         }
         return ctx;
     }
 
-    public static <T> T deserialize(Class<T> res, InputStream is)
+    /**
+     * Get the Unmarshaller for the package of the given class that is bound
+     * to the calling thread.
+     */
+    static Unmarshaller createUnmarshaller(Class<?> res)
+        throws JAXBException
+    {
+        String pkg = res.getPackage().getName();
+        Map<String,Unmarshaller> unmarshallers = _unmarshallers.get();
+        Unmarshaller u = unmarshallers.get(pkg);
+        if (u == null) {
+            u = getCachedContext(pkg).createUnmarshaller();
+            u.setEventHandler(_eventHandler);
+            unmarshallers.put(pkg, u);
+        }
+        return u;
+    }
+
+    private static Marshaller createMarshaller(Class<?> res)
         throws JAXBException
     {
         String pkg = res.getPackage().getName();
-        JAXBContext jc = getCachedContext(pkg);
-        Unmarshaller u = jc.createUnmarshaller();
-        u.setEventHandler(new DefaultValidationEventHandler());
+        Map<String,Marshaller> marshallers = _marshallers.get();
+        Marshaller m = marshallers.get(pkg);
+        if (m == null) {
+            m = getCachedContext(pkg).createMarshaller();
+            m.setEventHandler(_eventHandler);
+            m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            marshallers.put(pkg, m);
+        }
+        return m;
+    }
+
+    public static <T> T deserialize(Class<T> res, InputStream is)
+        throws JAXBException
+    {
+        Unmarshaller u = createUnmarshaller(res);
         return res.cast(u.unmarshal(is));
     }
 
     public static void serialize(Object o, OutputStream os, Boolean format)
         throws JAXBException
     {
-        String pkg = o.getClass().getPackage().getName();
-        JAXBContext jc = getCachedContext(pkg);
-        Marshaller m = jc.createMarshaller();
-        m.setEventHandler(new DefaultValidationEventHandler());
+        Marshaller m = createMarshaller(o.getClass());
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, format);
-        m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
         m.marshal(o, os);
     }
 }
@@ -0,0 +1,162 @@
+/*
+ *
+ * NOTE: This copyright does *not* cover user programs that use HQ
+ * program services by normal system calls through the application
+ * program interfaces provided as part of the Hyperic Plug-in Development
+ * Kit or the Hyperic Client Development Kit - this is merely considered
+ * normal use of the program, and does *not* fall under the heading of
+ * "derived work".
+ *
+ * Copyright (C) [2008, 2009], Hyperic, Inc.
+ * This file is part of HQ.
+ *
+ * HQ is free software; you can redistribute it and/or modify
+ * it under the terms version 2 of the GNU General Public License as
+ * published by the Free Software Foundation. This program is distributed
+ * in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA.
+ *
+ */
+
+package org.hyperic.hq.hqapi1.examples;
+
+import org.hyperic.hq.hqapi1.XmlUtil;
+import org.hyperic.hq.hqapi1.types.DataPoint;
+import org.hyperic.hq.hqapi1.types.MetricData;
+import org.hyperic.hq.hqapi1.types.MetricsDataResponse;
+import org.hyperic.hq.hqapi1.types.Resource;
+import org.hyperic.hq.hqapi1.types.ResourceInfo;
+import org.hyperic.hq.hqapi1.types.ResourcePrototype;
+import org.hyperic.hq.hqapi1.types.ResourcesResponse;
+import org.hyperic.hq.hqapi1.types.ResponseStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This example compares the size of plain and gzip compressed responses,
+ * and the time spent compressing and inflating them, for payloads shaped like
+ * the responses of {@link org.hyperic.hq.hqapi1.MetricApi#getMetricData}
+ * and {@link org.hyperic.hq.hqapi1.ResourceApi#getResources}.  No HQ server
+ * is needed.
+ */
+public class CompressionBenchmark {
+
+    private static final int ITERATIONS = 20;
+    private static final long INTERVAL = 60 * 1000; // 1 minute.
+
+    public CompressionBenchmark() {
+    }
+
+    private static MetricsDataResponse getMetricData(int resources, int points) {
+        Random r = new Random(0);
+        MetricsDataResponse response = new MetricsDataResponse();
+        response.setStatus(ResponseStatus.SUCCESS);
+        long start = System.currentTimeMillis() - points * INTERVAL;
+
+        for (int i = 0; i < resources; i++) {
+            MetricData data = new MetricData();
+            data.setResourceId(10001 + i);
+            data.setResourceName("host" + i + ".example.com Mount /var");
+            data.setMetricId(20001 + i);
+            data.setMetricName("Use Percent");
+            for (int j = 0; j < points; j++) {
+                DataPoint p = new DataPoint();
+                p.setTimestamp(start + j * INTERVAL);
+                p.setValue(r.nextDouble());
+                data.getDataPoint().add(p);
+            }
+            response.getMetricData().add(data);
+        }
+        return response;
+    }
+
+    private static ResourcesResponse getResources(int resources) {
+        ResourcesResponse response = new ResourcesResponse();
+        response.setStatus(ResponseStatus.SUCCESS);
+
+        ResourcePrototype prototype = new ResourcePrototype();
+        prototype.setId(10);
+        prototype.setName("FileServer Mount");
+
+        for (int i = 0; i < resources; i++) {
+            Resource resource = new Resource();
+            resource.setId(10001 + i);
+            resource.setName("host" + i + ".example.com Mount /var");
+            resource.setDescription("Local disk mounted on /var");
+            resource.setLocation("Rack " + (i % 40));
+            resource.setResourcePrototype(prototype);
+            ResourceInfo fqdn = new ResourceInfo();
+            fqdn.setKey("fqdn");
+            fqdn.setValue("host" + i + ".example.com");
+            resource.getResourceInfo().add(fqdn);
+            response.getResource().add(resource);
+        }
+        return response;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(bos);
+        gzip.write(data);
+        gzip.close();
+        return bos.toByteArray();
+    }
+
+    private static long inflate(byte[] data) throws IOException {
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(data));
+        byte[] buf = new byte[8192];
+        long total = 0;
+        int len;
+        while ((len = is.read(buf)) > 0) {
+            total += len;
+        }
+        is.close();
+        return total;
+    }
+
+    private static void run(String name, Object response) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XmlUtil.serialize(response, bos, false);
+        byte[] xml = bos.toByteArray();
+
+        byte[] compressed = null;
+        long compressTime = 0;
+        long inflateTime = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            compressed = compress(xml);
+            compressTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            inflate(compressed);
+            inflateTime += System.nanoTime() - start;
+        }
+
+        System.out.println(name + ":");
+        System.out.println("  plain=" + xml.length + " bytes gzip=" +
+                           compressed.length + " bytes ratio=" +
+                           String.format("%.1f", (double) xml.length /
+                                                 compressed.length) + ":1");
+        System.out.println("  compress=" + (compressTime / ITERATIONS / 1000) +
+                           "us inflate=" + (inflateTime / ITERATIONS / 1000) + "us");
+    }
+
+    public static void main(String[] args) throws Exception {
+        run("getMetricData 100 resources x 480 points", getMetricData(100, 480));
+        run("getMetricData 10 resources x 10080 points", getMetricData(10, 10080));
+        run("getResources 5000 resources", getResources(5000));
+    }
+}